@@ -0,0 +1,121 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+import com.company.figmaintegrationservice.mapper.FigmaMapper;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение итеративного обхода с путями-ссылками и прежнего рекурсивного обхода
+ * со строковой конкатенацией пути на каждом уровне.
+ *
+ * Дерево: цепочка из depth групп, у каждой breadth узлов-прямоугольников без картинки
+ * и один текст — выгружается лишь малая часть узлов, а пути длинные.
+ *
+ * Запуск: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeTraversalBenchmark {
+
+    @Param({"16", "256", "2048"})
+    private int depth;
+
+    @Param({"8"})
+    private int breadth;
+
+    private final FigmaMapper figmaMapper = Mappers.getMapper(FigmaMapper.class);
+    private NodeTraversalService traversalService;
+    private FigmaNode root;
+
+    @Setup
+    public void setUp() {
+        traversalService = new NodeTraversalService(figmaMapper);
+        root = deepTree(depth, breadth);
+    }
+
+    @Benchmark
+    public void iterative(Blackhole blackhole) {
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        traversalService.traverseNode(root, "Page", "", texts, images);
+        blackhole.consume(texts);
+        blackhole.consume(images);
+    }
+
+    @Benchmark
+    public void recursiveBaseline(Blackhole blackhole) {
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        traverseRecursive(root, "Page", "", texts, images);
+        blackhole.consume(texts);
+        blackhole.consume(images);
+    }
+
+    /**
+     * Прежняя реализация NodeTraversalService.traverseNode.
+     */
+    private void traverseRecursive(FigmaNode node, String pageName, String path,
+                                   List<FigmaTextDto> texts, List<FigmaImageDto> images) {
+        if (node == null) return;
+
+        String currentPath = path.isEmpty() ? node.getName() : path + " → " + node.getName();
+
+        if ("TEXT".equals(node.getType()) && node.getCharacters() != null) {
+            texts.add(figmaMapper.toTextDto(node, pageName, node.getFrameName(), currentPath));
+        }
+
+        if ("RECTANGLE".equals(node.getType()) && Boolean.TRUE.equals(node.getHasImageFill())) {
+            images.add(figmaMapper.toImageDto(node, pageName, node.getFrameName(), currentPath));
+        }
+
+        if (node.getChildren() != null) {
+            for (FigmaNode child : node.getChildren()) {
+                traverseRecursive(child, pageName, currentPath, texts, images);
+            }
+        }
+    }
+
+    private static FigmaNode deepTree(int depth, int breadth) {
+        FigmaNode root = node("0", "Root frame", "FRAME");
+        FigmaNode current = root;
+        for (int level = 1; level <= depth; level++) {
+            List<FigmaNode> children = new ArrayList<>(breadth + 2);
+            for (int i = 0; i < breadth; i++) {
+                children.add(node(level + ":" + i, "Shape " + i, "RECTANGLE"));
+            }
+            FigmaNode text = node(level + ":t", "Label " + level, "TEXT");
+            text.setCharacters("Text on level " + level);
+            children.add(text);
+
+            FigmaNode group = node(level + ":g", "Group " + level, "GROUP");
+            children.add(group);
+            current.setChildren(children);
+            current = group;
+        }
+        return root;
+    }
+
+    private static FigmaNode node(String id, String name, String type) {
+        FigmaNode node = new FigmaNode();
+        node.setId(id);
+        node.setName(name);
+        node.setType(type);
+        return node;
+    }
+}
@@ -2,27 +2,45 @@ package com.company.figmaintegrationservice.client;
 
 import com.company.figmaintegrationservice.client.dto.DocumentNode;
 import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaImageFillsResponse;
 import com.company.figmaintegrationservice.client.dto.FigmaImageResponse;
 import com.company.figmaintegrationservice.client.dto.FigmaNode;
 import com.company.figmaintegrationservice.client.dto.FigmaNodesResponse;
 import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.company.figmaintegrationservice.dto.FigmaPageExportDto;
+import com.company.figmaintegrationservice.mapper.FigmaMapper;
 import com.company.figmaintegrationservice.service.IFigmaFileCacheService;
 import com.company.figmaintegrationservice.service.IRateLimitService;
+import com.company.figmaintegrationservice.utils.FigmaNodeUtils;
+import com.company.figmaintegrationservice.utils.HttpUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 import reactor.util.retry.Retry;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -34,14 +52,31 @@ public class FigmaClient implements IFigmaClient {
     private final ObjectMapper objectMapper;
     private final IFigmaFileCacheService cacheService;
     private final IRateLimitService rateLimitService;
+    private final FigmaMapper figmaMapper;
+    private final NodeRequestPlanner requestPlanner;
 
-    private static final int BATCH_SIZE = 3;
-    private static final int DEEP_DEPTH = 10;
+    /**
+     * Сколько пакетов страниц загружается одновременно.
+     * Темп запросов задаёт только rate limiter; 1 — пакеты строго по очереди.
+     */
+    @Value("${figma.client.concurrency:4}")
+    private int concurrency;
 
-    /** Количество повторов при 429 и начальная задержка (сек). */
+    /** Глубина дерева узлов в ответе /nodes. */
+    @Value("${figma.client.depth:10}")
+    private int depth;
+
+    /** Таймаут одного запроса /nodes; по таймауту запрос дробится на части. */
+    @Value("${figma.client.request-timeout-seconds:120}")
+    private long requestTimeoutSeconds;
+
+    /**
+     * Количество повторов при 429 и границы задержки.
+     * Основную паузу задаёт rate limiter по Retry-After, backoff лишь разносит повторы.
+     */
     private static final int RETRY_MAX_ATTEMPTS = 6;
-    private static final Duration RETRY_MIN_BACKOFF = Duration.ofSeconds(5);
-    private static final Duration RETRY_MAX_BACKOFF = Duration.ofSeconds(120);
+    private static final Duration RETRY_MIN_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration RETRY_MAX_BACKOFF = Duration.ofSeconds(30);
 
     private static boolean is429(Throwable t) {
         if (t instanceof WebClientResponseException e) {
@@ -50,24 +85,78 @@ public class FigmaClient implements IFigmaClient {
         return t.getMessage() != null && t.getMessage().contains("429");
     }
 
+    /**
+     * Ответ не поместился в лимит или не уложился в таймаут — запрос нужно раздробить.
+     */
+    private static boolean isTooLarge(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataBufferLimitException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Duration retryAfter(Throwable t) {
+        if (t instanceof WebClientResponseException e) {
+            return HttpUtils.parseRetryAfter(e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        }
+        return null;
+    }
+
     @Override
     public Mono<FigmaFileResponse> getFile(String token, String fileKey) {
-        return cacheService.getOrCompute(fileKey, () -> getFullFileSmart(token, fileKey));
+        return cacheService.getOrCompute(fileKey, () -> getVersion(token, fileKey),
+                () -> getFullFileSmart(token, fileKey));
     }
 
-    /** Пропуск запроса через rate limiter для api.figma.com. */
-    private <T> Mono<T> withRateLimit(Mono<T> request) {
-        return Mono.fromCallable(() -> {
-                    rateLimitService.acquire();
-                    return true;
-                })
-                .subscribeOn(Schedulers.boundedElastic())
-                .then(request);
+    /**
+     * Актуальный полный документ из кэша фильтруется в памяти. Иначе запрашиваются только
+     * прошедшие фильтр страницы; такой неполный документ в кэш не попадает.
+     */
+    @Override
+    public Mono<FigmaFileResponse> getFile(String token, String fileKey, Predicate<PageNode> pageFilter) {
+        return cacheService.getIfCurrent(fileKey, () -> getVersion(token, fileKey))
+                .map(file -> FigmaNodeUtils.withPages(file, pageFilter))
+                .switchIfEmpty(Mono.defer(() -> getFullFileSmart(token, fileKey, pageFilter)));
+    }
+
+    private Mono<String> getVersion(String token, String fileKey) {
+        return withRateLimit(token, getMetadata(token, fileKey), "version").mapNotNull(FigmaFileResponse::getVersion);
+    }
+
+    /**
+     * Пропуск запроса через rate limiter для api.figma.com в бакете токена.
+     * Результат запроса возвращается в лимитер (AIMD), а каждый повтор после 429
+     * заново получает разрешение и выдерживает паузу Retry-After.
+     * Ожидание разрешения не занимает поток — запрос просто подписывается позже.
+     */
+    private <T> Mono<T> withRateLimit(String token, Mono<T> request, String operation) {
+        return rateLimitService.acquireReactive(token)
+                .then(request)
+                .doOnSuccess(value -> rateLimitService.onSuccess(token))
+                .doOnError(FigmaClient::is429, e -> rateLimitService.onRateLimited(token, retryAfter(e)))
+                .retryWhen(retryOn429(operation));
+    }
+
+    private <T> Flux<T> withRateLimit(String token, Flux<T> request, String operation) {
+        return rateLimitService.acquireReactive(token)
+                .thenMany(request)
+                .doOnComplete(() -> rateLimitService.onSuccess(token))
+                .doOnError(FigmaClient::is429, e -> rateLimitService.onRateLimited(token, retryAfter(e)))
+                .retryWhen(retryOn429(operation));
+    }
+
+    private static Retry retryOn429(String operation) {
+        return Retry.backoff(RETRY_MAX_ATTEMPTS, RETRY_MIN_BACKOFF)
+                .maxBackoff(RETRY_MAX_BACKOFF)
+                .filter(FigmaClient::is429)
+                .doBeforeRetry(s -> log.warn("⚠️ 429 от Figma API ({}), повтор (попытка {})", operation, s.totalRetries() + 1));
     }
 
     @Override
     public Mono<FigmaImageResponse> getImages(String token, String fileKey, String nodeIds) {
-        return withRateLimit(figmaWebClient.get()
+        return withRateLimit(token, figmaWebClient.get()
                 .uri(uriBuilder -> uriBuilder
                         .path("/images/{fileKey}")
                         .queryParam("ids", nodeIds)
@@ -76,12 +165,12 @@ public class FigmaClient implements IFigmaClient {
                 .headers(h -> h.set("X-Figma-Token", token))
                 .retrieve()
                 .bodyToMono(FigmaImageResponse.class)
-                .delayElement(Duration.ofMillis(500)));
+                .delayElement(Duration.ofMillis(500)), "images");
     }
 
     @Override
     public Mono<FigmaNodesResponse> getNodes(String token, String fileKey, String nodeIds, int depth) {
-        return withRateLimit(figmaWebClient.get()
+        return withRateLimit(token, figmaWebClient.get()
                 .uri(uriBuilder -> uriBuilder
                         .path("/files/{fileKey}/nodes")
                         .queryParam("ids", nodeIds)
@@ -89,29 +178,138 @@ public class FigmaClient implements IFigmaClient {
                         .build(fileKey))
                 .headers(h -> h.set("X-Figma-Token", token))
                 .retrieve()
-                .bodyToMono(FigmaNodesResponse.class)
-                .retryWhen(Retry.backoff(RETRY_MAX_ATTEMPTS, RETRY_MIN_BACKOFF)
-                        .maxBackoff(RETRY_MAX_BACKOFF)
-                        .filter(FigmaClient::is429)
-                        .doBeforeRetry(s -> log.warn("⚠️ 429 от Figma API, повтор (попытка {})", s.totalRetries() + 1))));
+                .bodyToMono(FigmaNodesResponse.class), "nodes");
+    }
+
+    /**
+     * Если актуальный полный документ файла есть в кэше, узлы берутся из его индекса без запросов к API.
+     * Узел обслуживается из памяти, когда кэш содержит его поддерево на запрошенную глубину
+     * (уровень узла от страницы + depth не больше глубины загрузки документа). Остальные узлы
+     * загружаются частями; все узлы отдаются в порядке nodeIds независимо от того, откуда взяты.
+     */
+    @Override
+    public Flux<FigmaNode> getNodesChunked(String token, String fileKey, List<String> nodeIds, int depth) {
+        return cacheService.getNodeIndexIfCurrent(fileKey, () -> getVersion(token, fileKey))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMapMany(index -> {
+                    if (index.isEmpty()) {
+                        return loadNodesChunked(token, fileKey, nodeIds, depth);
+                    }
+
+                    FigmaNode[] cached = new FigmaNode[nodeIds.size()];
+                    List<Integer> missing = new ArrayList<>();
+                    for (int i = 0; i < nodeIds.size(); i++) {
+                        int level = index.get().level(nodeIds.get(i));
+                        if (level >= 0 && level + depth <= this.depth) {
+                            cached[i] = index.get().get(nodeIds.get(i));
+                        } else {
+                            missing.add(i);
+                        }
+                    }
+                    log.info("🗂️ Из кэша документа {}: {} из {} узлов", fileKey, nodeIds.size() - missing.size(), nodeIds.size());
+
+                    return missing.isEmpty()
+                            ? Flux.fromArray(cached)
+                            : mergeInRequestOrder(token, fileKey, nodeIds, cached, missing, depth);
+                });
+    }
+
+    /**
+     * Догружает отсутствующие в кэше узлы частями и вставляет их между узлами из кэша.
+     * Части идут по порядку nodeIds, поэтому по приходе очередной части можно отдать
+     * все узлы до её последнего ID включительно.
+     *
+     * @param cached узлы из кэша по позициям nodeIds (null — узел загружается)
+     * @param missing позиции загружаемых узлов по возрастанию
+     */
+    private Flux<FigmaNode> mergeInRequestOrder(String token, String fileKey, List<String> nodeIds,
+                                                FigmaNode[] cached, List<Integer> missing, int depth) {
+        List<String> missingIds = missing.stream().map(nodeIds::get).toList();
+        List<List<String>> chunks = requestPlanner.chunkIds(fileKey, missingIds);
+        log.info("🎯 {} узлов загружаются {} запросами (параллельно до {})", missingIds.size(), chunks.size(), concurrency);
+
+        return Flux.defer(() -> {
+            int[] emitted = {0};
+            int[] loadedIds = {0};
+            return Flux.fromIterable(chunks)
+                    .flatMapSequential(chunk -> loadNodesSplitting(token, fileKey, chunk, depth), concurrency)
+                    .zipWithIterable(chunks)
+                    .concatMapIterable(loaded -> {
+                        loadedIds[0] += loaded.getT2().size();
+                        int end = missing.get(loadedIds[0] - 1);
+                        List<FigmaNode> ready = new ArrayList<>();
+                        for (int i = emitted[0]; i <= end; i++) {
+                            FigmaNode node = cached[i] != null ? cached[i] : loaded.getT1().get(nodeIds.get(i));
+                            if (node != null) {
+                                ready.add(node);
+                            }
+                        }
+                        emitted[0] = end + 1;
+                        return ready;
+                    })
+                    .concatWith(Flux.defer(() -> Flux.fromArray(cached)
+                            .skip(emitted[0])
+                            .filter(Objects::nonNull)));
+        });
+    }
+
+    /**
+     * Части строятся планировщиком по длине URL и ожидаемому размеру ответа и загружаются
+     * под rate limiter с параллельностью concurrency; переполненная часть делится пополам.
+     */
+    private Flux<FigmaNode> loadNodesChunked(String token, String fileKey, List<String> nodeIds, int depth) {
+        List<List<String>> chunks = requestPlanner.chunkIds(fileKey, nodeIds);
+        log.info("🎯 {} узлов загружаются {} запросами (параллельно до {})", nodeIds.size(), chunks.size(), concurrency);
+
+        return Flux.fromIterable(chunks)
+                .flatMapSequential(chunk -> loadNodesSplitting(token, fileKey, chunk, depth)
+                        .flatMapIterable(nodes -> chunk.stream()
+                                .map(nodes::get)
+                                .filter(Objects::nonNull)
+                                .toList()), concurrency);
+    }
+
+    @Override
+    public Mono<Map<String, String>> getImageFills(String token, String fileKey) {
+        return withRateLimit(token, figmaWebClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/files/{fileKey}/images")
+                        .build(fileKey))
+                .headers(h -> h.set("X-Figma-Token", token))
+                .retrieve()
+                .bodyToMono(FigmaImageFillsResponse.class)
+                .map(response -> response.getMeta() != null && response.getMeta().getImages() != null
+                        ? response.getMeta().getImages()
+                        : Map.<String, String>of()), "image fills");
     }
 
     public Mono<FigmaFileResponse> getFullFileSmart(String token, String fileKey) {
+        return getFullFileSmart(token, fileKey, page -> true);
+    }
+
+    private Mono<FigmaFileResponse> getFullFileSmart(String token, String fileKey, Predicate<PageNode> pageFilter) {
         log.info("📤 Начинаем умную выгрузку файла: {}", fileKey);
 
-        return withRateLimit(getMetadata(token, fileKey))
+        return withRateLimit(token, getMetadata(token, fileKey), "metadata")
                 .flatMap(metadata -> {
-                    List<PageNode> pages = metadata.getDocument().getChildren();
-                    if (pages == null || pages.isEmpty()) {
+                    List<PageNode> allPages = metadata.getDocument().getChildren();
+                    if (allPages == null || allPages.isEmpty()) {
                         return Mono.just(metadata);
                     }
+                    List<PageNode> pages = allPages.stream().filter(pageFilter).toList();
+                    if (pages.size() < allPages.size()) {
+                        log.info("🔎 Фильтр страниц: запрашиваем {} из {}", pages.size(), allPages.size());
+                    }
+                    if (pages.isEmpty()) {
+                        return Mono.just(assembleFullDocument(metadata, List.of()));
+                    }
 
-                    log.info("📊 Найдено страниц: {}", pages.size());
+                    List<List<PageNode>> batches = requestPlanner.plan(fileKey, pages);
+                    log.info("📊 Найдено страниц: {}, запросов: {} (параллельно до {})", pages.size(), batches.size(), concurrency);
 
-                    return Flux.fromIterable(pages)
-                            .buffer(BATCH_SIZE)
-                            .delayElements(Duration.ofSeconds(2))
-                            .concatMap(batch -> withRateLimit(loadPagesBatch(token, fileKey, batch)))
+                    return Flux.fromIterable(batches)
+                            .flatMapSequential(batch -> loadPagesAdaptive(token, fileKey, batch), concurrency)
                             .collectList()
                             .map(batchesResults -> {
                                 return assembleFullDocument(metadata, batchesResults);
@@ -128,32 +326,126 @@ public class FigmaClient implements IFigmaClient {
                         .build(fileKey))
                 .headers(h -> h.set("X-Figma-Token", token))
                 .retrieve()
-                .bodyToMono(FigmaFileResponse.class)
-                .retryWhen(Retry.backoff(RETRY_MAX_ATTEMPTS, RETRY_MIN_BACKOFF)
-                        .maxBackoff(RETRY_MAX_BACKOFF)
-                        .filter(FigmaClient::is429)
-                        .doBeforeRetry(s -> log.warn("⚠️ 429 от Figma API (metadata), повтор (попытка {})", s.totalRetries() + 1)));
+                .bodyToMono(FigmaFileResponse.class);
     }
 
-    private Mono<Map<String, FigmaNode>> loadPagesBatch(String token, String fileKey, List<PageNode> pagesBatch) {
-        String pageIds = pagesBatch.stream()
-                .map(PageNode::getId)
-                .collect(Collectors.joining(","));
+    /**
+     * Загружает пакет страниц. Если ответ не поместился в лимит или не уложился в таймаут,
+     * пакет делится на отдельные страницы, а слишком тяжёлая страница загружается по частям.
+     */
+    private Mono<Map<String, FigmaNode>> loadPagesAdaptive(String token, String fileKey, List<PageNode> pagesBatch) {
+        if (pagesBatch.size() == 1 && requestPlanner.isHeavy(fileKey, pagesBatch.get(0).getId())) {
+            return loadHeavyPage(token, fileKey, pagesBatch.get(0));
+        }
 
-        log.info("📦 Загружаем пакет из {} страниц: {}", pagesBatch.size(), pageIds);
+        List<String> pageIds = pagesBatch.stream().map(PageNode::getId).toList();
+        log.info("📦 Загружаем пакет из {} страниц: {}", pagesBatch.size(), String.join(",", pageIds));
+
+        return withRateLimit(token, loadNodes(token, fileKey, pageIds, depth), "nodes batch")
+                .onErrorResume(FigmaClient::isTooLarge, e -> {
+                    if (pagesBatch.size() > 1) {
+                        log.warn("✂️ Пакет из {} страниц слишком тяжёлый ({}), загружаем страницы по одной",
+                                pagesBatch.size(), e.getClass().getSimpleName());
+                        return Flux.fromIterable(pagesBatch)
+                                .flatMapSequential(page -> loadPagesAdaptive(token, fileKey, List.of(page)), concurrency)
+                                .collect(HashMap<String, FigmaNode>::new, Map::putAll);
+                    }
+                    requestPlanner.markHeavy(fileKey, pagesBatch.get(0).getId());
+                    return loadHeavyPage(token, fileKey, pagesBatch.get(0));
+                });
+    }
+
+    /**
+     * Загружает тяжёлую страницу по частям: сначала саму страницу с глубиной 1,
+     * затем её фреймы верхнего уровня отдельными запросами с оставшейся глубиной.
+     */
+    private Mono<Map<String, FigmaNode>> loadHeavyPage(String token, String fileKey, PageNode page) {
+        log.info("🪓 Страница {} загружается по частям", page.getName());
+        return loadInParts(token, fileKey, page.getId(), Math.max(1, depth - 1));
+    }
+
+    /**
+     * Загружает узел с глубиной 1, затем его дочерние узлы группами с глубиной childrenDepth
+     * и подставляет их на место неполных детей.
+     */
+    private Mono<Map<String, FigmaNode>> loadInParts(String token, String fileKey, String nodeId, int childrenDepth) {
+        return withRateLimit(token, loadNodes(token, fileKey, List.of(nodeId), 1), "nodes shallow")
+                .onErrorMap(FigmaClient::isTooLarge, e -> nodeTooLarge(nodeId, e))
+                .flatMap(shallow -> {
+                    FigmaNode node = shallow.get(nodeId);
+                    if (node == null || node.getChildren() == null || node.getChildren().isEmpty()) {
+                        return Mono.just(shallow);
+                    }
+
+                    List<String> childIds = node.getChildren().stream().map(FigmaNode::getId).toList();
+                    return Flux.fromIterable(childIds)
+                            .buffer(Math.max(1, requestPlanner.getFramesPerRequest()))
+                            .flatMapSequential(ids -> loadNodesSplitting(token, fileKey, ids, childrenDepth), concurrency)
+                            .collect(HashMap<String, FigmaNode>::new, Map::putAll)
+                            .map(loaded -> {
+                                List<FigmaNode> children = new ArrayList<>(node.getChildren().size());
+                                for (FigmaNode child : node.getChildren()) {
+                                    children.add(loaded.getOrDefault(child.getId(), child));
+                                }
+                                node.setChildren(children);
+                                return shallow;
+                            });
+                });
+    }
+
+    /**
+     * Загружает узлы, при переполнении ответа деля список пополам вплоть до одного узла.
+     * Слишком тяжёлый одиночный узел загружается по частям, как тяжёлая страница, пока остаётся глубина;
+     * если узел не помещается и на глубине 1, ошибка называет его.
+     */
+    private Mono<Map<String, FigmaNode>> loadNodesSplitting(String token, String fileKey, List<String> nodeIds, int nodesDepth) {
+        return withRateLimit(token, loadNodes(token, fileKey, nodeIds, nodesDepth), "nodes frames")
+                .onErrorResume(FigmaClient::isTooLarge, e -> {
+                    if (nodeIds.size() > 1) {
+                        int middle = nodeIds.size() / 2;
+                        return Flux.just(nodeIds.subList(0, middle), nodeIds.subList(middle, nodeIds.size()))
+                                .concatMap(half -> loadNodesSplitting(token, fileKey, half, nodesDepth))
+                                .collect(HashMap<String, FigmaNode>::new, Map::putAll);
+                    }
+                    String nodeId = nodeIds.get(0);
+                    if (nodesDepth <= 1) {
+                        return Mono.error(nodeTooLarge(nodeId, e));
+                    }
+                    log.warn("🪓 Узел {} слишком тяжёлый на глубине {} ({}), загружаем его детей отдельно",
+                            nodeId, nodesDepth, e.getClass().getSimpleName());
+                    return loadInParts(token, fileKey, nodeId, nodesDepth - 1);
+                });
+    }
+
+    private IllegalStateException nodeTooLarge(String nodeId, Throwable cause) {
+        return new IllegalStateException("Узел " + nodeId + " не помещается в ответ /nodes даже по частям (лимит "
+                + requestPlanner.getMaxResponseBytes() / (1024 * 1024) + " МБ, таймаут " + requestTimeoutSeconds
+                + " с); исключите его фильтром фреймов или увеличьте figma.client.max-response-mb", cause);
+    }
+
+    /**
+     * Загружает узлы по ID одним запросом /nodes.
+     * Размер ответа в байтах и число узлов каждого поддерева передаются в планировщик.
+     */
+    private Mono<Map<String, FigmaNode>> loadNodes(String token, String fileKey, List<String> nodeIds, int nodesDepth) {
+        String ids = String.join(",", nodeIds);
+
+        return DataBufferUtils.join(figmaWebClient.get()
+                        .uri(uriBuilder -> uriBuilder
+                                .path("/files/{fileKey}/nodes")
+                                .queryParam("ids", ids)
+                                .queryParam("depth", nodesDepth)
+                                .build(fileKey))
+                        .headers(h -> h.set("X-Figma-Token", token))
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class), (int) Math.min(Integer.MAX_VALUE, requestPlanner.getMaxResponseBytes()))
+                .timeout(Duration.ofSeconds(requestTimeoutSeconds))
+                .map(buffer -> {
+                    long bytes = buffer.readableByteCount();
+                    FigmaNodesResponse response = readNodesResponse(buffer);
 
-        return figmaWebClient.get()
-                .uri(uriBuilder -> uriBuilder
-                        .path("/files/{fileKey}/nodes")
-                        .queryParam("ids", pageIds)
-                        .queryParam("depth", DEEP_DEPTH)
-                        .build(fileKey))
-                .headers(h -> h.set("X-Figma-Token", token))
-                .retrieve()
-                .bodyToMono(FigmaNodesResponse.class)
-                .map(response -> {
                     // Преобразуем FigmaNodesResponse в Map<String, FigmaNode> для обратной совместимости
-                    Map<String, FigmaNode> result = new java.util.HashMap<>();
+                    Map<String, FigmaNode> result = new HashMap<>();
                     if (response != null && response.getNodes() != null) {
                         for (Map.Entry<String, FigmaNodesResponse.NodeWrapper> entry : response.getNodes().entrySet()) {
                             if (entry.getValue() != null && entry.getValue().getDocument() != null) {
@@ -161,12 +453,140 @@ public class FigmaClient implements IFigmaClient {
                             }
                         }
                     }
+                    recordResponseSize(fileKey, result, bytes);
                     return result;
+                });
+    }
+
+    private FigmaNodesResponse readNodesResponse(DataBuffer buffer) {
+        try (InputStream in = buffer.asInputStream(true)) {
+            return objectMapper.readValue(in, FigmaNodesResponse.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Распределяет размер ответа между поддеревьями пропорционально числу узлов.
+     */
+    private void recordResponseSize(String fileKey, Map<String, FigmaNode> nodes, long bytes) {
+        Map<String, Long> counts = new HashMap<>();
+        long total = 0;
+        for (Map.Entry<String, FigmaNode> entry : nodes.entrySet()) {
+            long count = countNodes(entry.getValue());
+            counts.put(entry.getKey(), count);
+            total += count;
+        }
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            long share = total > 0 ? bytes * entry.getValue() / total : bytes / Math.max(1, counts.size());
+            requestPlanner.record(fileKey, entry.getKey(), share, entry.getValue());
+        }
+    }
+
+    private static long countNodes(FigmaNode root) {
+        long count = 0;
+        ArrayDeque<FigmaNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            FigmaNode node = stack.pop();
+            count++;
+            if (node.getChildren() != null) {
+                for (FigmaNode child : node.getChildren()) {
+                    stack.push(child);
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Flux<FigmaPageExportDto> streamFile(String token, String fileKey) {
+        return streamFile(token, fileKey, page -> true);
+    }
+
+    @Override
+    public Flux<FigmaPageExportDto> streamFile(String token, String fileKey, Predicate<PageNode> pageFilter) {
+        log.info("📤 Начинаем потоковую выгрузку файла: {}", fileKey);
+
+        return withRateLimit(token, getMetadata(token, fileKey), "metadata")
+                .flatMapMany(metadata -> {
+                    List<PageNode> pages = metadata.getDocument() != null && metadata.getDocument().getChildren() != null
+                            ? metadata.getDocument().getChildren().stream().filter(pageFilter).toList()
+                            : null;
+                    if (pages == null || pages.isEmpty()) {
+                        return Flux.empty();
+                    }
+
+                    List<List<PageNode>> batches = requestPlanner.plan(fileKey, pages);
+                    log.info("📊 Найдено страниц: {}, запросов: {} (параллельно до {})", pages.size(), batches.size(), concurrency);
+
+                    return Flux.fromIterable(batches)
+                            .flatMapSequential(batch -> withRateLimit(token,
+                                    streamPagesBatch(token, fileKey, batch, metadata.getVersion()), "nodes stream"), concurrency);
                 })
-                .retryWhen(Retry.backoff(RETRY_MAX_ATTEMPTS, RETRY_MIN_BACKOFF)
-                        .maxBackoff(RETRY_MAX_BACKOFF)
-                        .filter(FigmaClient::is429)
-                        .doBeforeRetry(s -> log.warn("⚠️ 429 от Figma API (nodes batch), повтор (попытка {})", s.totalRetries() + 1)));
+                .doOnComplete(() -> log.info("✅ Файл выгружен потоково"));
+    }
+
+    /**
+     * Загружает пакет страниц и разбирает ответ по мере поступления байтов.
+     * Ответ не декодируется в FigmaNodesResponse, поэтому лимит maxInMemorySize к нему не применяется.
+     */
+    private Flux<FigmaPageExportDto> streamPagesBatch(String token, String fileKey,
+                                                      List<PageNode> pagesBatch, String version) {
+        String pageIds = pagesBatch.stream()
+                .map(PageNode::getId)
+                .collect(Collectors.joining(","));
+
+        log.info("📦 Потоково загружаем пакет из {} страниц: {}", pagesBatch.size(), pageIds);
+
+        return Flux.defer(() -> {
+                    FigmaNodeStreamParser parser = createStreamParser(version);
+                    return figmaWebClient.get()
+                            .uri(uriBuilder -> uriBuilder
+                                    .path("/files/{fileKey}/nodes")
+                                    .queryParam("ids", pageIds)
+                                    .queryParam("depth", depth)
+                                    .build(fileKey))
+                            .headers(h -> h.set("X-Figma-Token", token))
+                            .retrieve()
+                            .bodyToFlux(DataBuffer.class)
+                            .concatMapIterable(buffer -> feedParser(parser, buffer))
+                            .concatWith(Flux.defer(() -> Flux.fromIterable(finishParser(parser))))
+                            .doOnComplete(() -> {
+                                log.debug("📦 Пакет {} разобран: {} байт", pageIds, parser.getBytesConsumed());
+                                for (PageNode page : pagesBatch) {
+                                    requestPlanner.record(fileKey, page.getId(), parser.getBytesConsumed() / pagesBatch.size(), 0);
+                                }
+                            });
+                });
+    }
+
+    private FigmaNodeStreamParser createStreamParser(String version) {
+        try {
+            return new FigmaNodeStreamParser(objectMapper.getFactory(), figmaMapper, version);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<FigmaPageExportDto> feedParser(FigmaNodeStreamParser parser, DataBuffer buffer) {
+        try {
+            byte[] chunk = new byte[buffer.readableByteCount()];
+            buffer.read(chunk);
+            return parser.feed(chunk, 0, chunk.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static List<FigmaPageExportDto> finishParser(FigmaNodeStreamParser parser) {
+        try {
+            return parser.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private FigmaFileResponse assembleFullDocument(FigmaFileResponse metadata,
@@ -0,0 +1,360 @@
+package com.company.figmaintegrationservice.client;
+
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.FigmaPaint;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaPageExportDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+import com.company.figmaintegrationservice.mapper.FigmaMapper;
+import com.company.figmaintegrationservice.utils.FigmaNodeUtils;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Потоковый разбор ответа /files/{key}/nodes на неблокирующем парсере Jackson.
+ * Байты подаются порциями по мере поступления из сети, а тексты и изображения
+ * извлекаются сразу, без построения дерева FigmaNode.
+ * Память ограничена глубиной дерева: хранятся только скалярные поля узлов текущей ветки.
+ * Экземпляр одноразовый и не потокобезопасен — один парсер на один HTTP ответ.
+ */
+public class FigmaNodeStreamParser {
+
+    private enum Kind { ROOT, NODES, WRAPPER, NODE, CHILDREN, FILLS, PAINT, SKIP }
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final FigmaMapper figmaMapper;
+    private final String version;
+
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final List<FigmaPageExportDto> completed = new ArrayList<>();
+    private boolean rootSeen;
+    private long bytesConsumed;
+
+    public FigmaNodeStreamParser(JsonFactory jsonFactory, FigmaMapper figmaMapper, String version) throws IOException {
+        this.parser = jsonFactory.createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.figmaMapper = figmaMapper;
+        this.version = version;
+    }
+
+    /**
+     * Подает очередную порцию байтов ответа.
+     *
+     * @return страницы, полностью разобранные к этому моменту
+     */
+    public List<FigmaPageExportDto> feed(byte[] data, int offset, int length) throws IOException {
+        feeder.feedInput(data, offset, offset + length);
+        bytesConsumed += length;
+        return drain();
+    }
+
+    /**
+     * Сообщает о конце ответа и возвращает оставшиеся страницы.
+     *
+     * @throws IOException если JSON оборвался до закрытия корневого объекта
+     */
+    public List<FigmaPageExportDto> finish() throws IOException {
+        feeder.endOfInput();
+        List<FigmaPageExportDto> rest = drain();
+        parser.close();
+        if (!rootSeen || !stack.isEmpty()) {
+            throw new IOException("Ответ /nodes оборвался до конца документа");
+        }
+        return rest;
+    }
+
+    /**
+     * Количество байтов, поданных в парсер.
+     */
+    public long getBytesConsumed() {
+        return bytesConsumed;
+    }
+
+    private List<FigmaPageExportDto> drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            handle(token);
+        }
+        if (completed.isEmpty()) {
+            return List.of();
+        }
+        List<FigmaPageExportDto> pages = new ArrayList<>(completed);
+        completed.clear();
+        return pages;
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        Frame top = stack.peek();
+        if (top == null) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Ожидался JSON объект в ответе /nodes, получено: " + token);
+            }
+            rootSeen = true;
+            stack.push(new Frame(Kind.ROOT, null));
+            return;
+        }
+
+        switch (top.kind) {
+            case SKIP -> {
+                if (token.isStructStart()) {
+                    top.skipDepth++;
+                } else if (token.isStructEnd() && --top.skipDepth == 0) {
+                    stack.pop();
+                }
+            }
+            case CHILDREN -> {
+                if (token == JsonToken.END_ARRAY) {
+                    stack.pop();
+                } else if (token == JsonToken.START_OBJECT) {
+                    stack.push(new Frame(Kind.NODE, new NodeState(top.node)));
+                } else {
+                    skipValue(token);
+                }
+            }
+            case FILLS -> {
+                if (token == JsonToken.END_ARRAY) {
+                    stack.pop();
+                } else if (token == JsonToken.START_OBJECT) {
+                    Frame paint = new Frame(Kind.PAINT, top.node);
+                    paint.paint = new FigmaPaint();
+                    stack.push(paint);
+                } else {
+                    skipValue(token);
+                }
+            }
+            default -> {
+                if (token == JsonToken.FIELD_NAME) {
+                    top.field = parser.currentName();
+                } else if (token == JsonToken.END_OBJECT) {
+                    stack.pop();
+                    onObjectEnd(top);
+                } else {
+                    onValue(top, token);
+                }
+            }
+        }
+    }
+
+    private void onValue(Frame frame, JsonToken token) throws IOException {
+        String field = frame.field;
+        switch (frame.kind) {
+            case ROOT -> {
+                if ("nodes".equals(field) && token == JsonToken.START_OBJECT) {
+                    stack.push(new Frame(Kind.NODES, null));
+                } else {
+                    skipValue(token);
+                }
+            }
+            case NODES -> {
+                if (token == JsonToken.START_OBJECT) {
+                    Frame wrapper = new Frame(Kind.WRAPPER, null);
+                    wrapper.key = field;
+                    stack.push(wrapper);
+                } else {
+                    skipValue(token);
+                }
+            }
+            case WRAPPER -> {
+                if ("document".equals(field) && token == JsonToken.START_OBJECT) {
+                    stack.push(new Frame(Kind.NODE, NodeState.page(frame.key)));
+                } else {
+                    skipValue(token);
+                }
+            }
+            case NODE -> onNodeField(frame.node, field, token);
+            case PAINT -> onPaintField(frame.paint, field, token);
+            default -> skipValue(token);
+        }
+    }
+
+    private void onNodeField(NodeState state, String field, JsonToken token) throws IOException {
+        FigmaNode node = state.node;
+        if (field == null) {
+            skipValue(token);
+            return;
+        }
+        switch (field) {
+            case "id" -> node.setId(stringValue(token));
+            case "name" -> node.setName(stringValue(token));
+            case "type" -> node.setType(stringValue(token));
+            case "characters" -> node.setCharacters(stringValue(token));
+            case "frameName" -> node.setFrameName(stringValue(token));
+            case "imageUrl" -> node.setImageUrl(stringValue(token));
+            case "hasImageFill" -> node.setHasImageFill(token == JsonToken.VALUE_TRUE);
+            case "fills" -> {
+                if (token == JsonToken.START_ARRAY) {
+                    node.setFills(new ArrayList<>(1));
+                    stack.push(new Frame(Kind.FILLS, state));
+                } else {
+                    skipValue(token);
+                }
+            }
+            case "children" -> {
+                if (token == JsonToken.START_ARRAY) {
+                    // Родитель выдаётся до своих потомков — тот же порядок, что и при рекурсивном обходе
+                    emit(state, true);
+                    stack.push(new Frame(Kind.CHILDREN, state));
+                } else {
+                    skipValue(token);
+                }
+            }
+            default -> skipValue(token);
+        }
+    }
+
+    private void onPaintField(FigmaPaint paint, String field, JsonToken token) throws IOException {
+        if (field == null) {
+            skipValue(token);
+            return;
+        }
+        switch (field) {
+            case "type" -> paint.setType(stringValue(token));
+            case "imageRef" -> paint.setImageRef(stringValue(token));
+            case "visible" -> paint.setVisible(token == JsonToken.VALUE_TRUE);
+            default -> skipValue(token);
+        }
+    }
+
+    private void onObjectEnd(Frame frame) {
+        if (frame.kind == Kind.PAINT) {
+            // Хранятся только заливки картинками — остальные для выгрузки не нужны
+            if (frame.paint.getImageRef() != null) {
+                frame.node.node.getFills().add(frame.paint);
+            }
+            return;
+        }
+        if (frame.kind != Kind.NODE) {
+            return;
+        }
+        NodeState state = frame.node;
+        if (state.isPage()) {
+            state.images.removeIf(Objects::isNull);
+            completed.add(new FigmaPageExportDto(version, state.pageId, state.node.getName(),
+                    state.texts, state.images));
+        } else if (!state.emitted) {
+            emit(state, false);
+        } else if (state.imageSlot >= 0 && FigmaNodeUtils.isImageNode(state.node)) {
+            // fills пришли после children — изображение встаёт на зарезервированное место
+            NodeState page = state.page;
+            page.images.set(state.imageSlot,
+                    figmaMapper.toImageDto(state.node, page.node.getName(), state.node.getFrameName(), state.path()));
+        }
+    }
+
+    private void emit(NodeState state, boolean inChildren) {
+        if (state.emitted || state.isPage()) {
+            return;
+        }
+        state.emitted = true;
+
+        FigmaNode node = state.node;
+        NodeState page = state.page;
+        if ("TEXT".equals(node.getType()) && node.getCharacters() != null) {
+            FigmaTextDto text = figmaMapper.toTextDto(node, page.node.getName(), node.getFrameName(), state.path());
+            page.texts.add(text);
+        }
+        if (FigmaNodeUtils.isImageNode(node)) {
+            FigmaImageDto image = figmaMapper.toImageDto(node, page.node.getName(), node.getFrameName(), state.path());
+            page.images.add(image);
+        } else if (inChildren) {
+            // У контейнера fills обычно идут после children: резервируем место, чтобы сохранить порядок обхода
+            state.imageSlot = page.images.size();
+            page.images.add(null);
+        }
+    }
+
+    private String stringValue(JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        skipValue(token);
+        return null;
+    }
+
+    private void skipValue(JsonToken token) {
+        if (token.isStructStart()) {
+            Frame skip = new Frame(Kind.SKIP, null);
+            skip.skipDepth = 1;
+            stack.push(skip);
+        }
+    }
+
+    private static final class Frame {
+        private final Kind kind;
+        private final NodeState node;
+        private FigmaPaint paint;
+        private String field;
+        private String key;
+        private int skipDepth;
+
+        private Frame(Kind kind, NodeState node) {
+            this.kind = kind;
+            this.node = node;
+        }
+    }
+
+    /**
+     * Скалярные поля узла текущей ветки. Потомки не хранятся.
+     */
+    private static final class NodeState {
+        private final FigmaNode node = new FigmaNode();
+        private final NodeState parent;
+        private final NodeState page;
+        private final String pageId;
+        private final List<FigmaTextDto> texts;
+        private final List<FigmaImageDto> images;
+        private String path;
+        private boolean emitted;
+        private int imageSlot = -1;
+
+        private NodeState(NodeState parent) {
+            this.parent = parent;
+            this.page = parent.page;
+            this.pageId = null;
+            this.texts = null;
+            this.images = null;
+        }
+
+        private NodeState(String pageId) {
+            this.parent = null;
+            this.page = this;
+            this.pageId = pageId;
+            this.texts = new ArrayList<>();
+            this.images = new ArrayList<>();
+        }
+
+        static NodeState page(String pageId) {
+            return new NodeState(pageId);
+        }
+
+        boolean isPage() {
+            return page == this;
+        }
+
+        /**
+         * Путь строится так же, как в NodeTraversalService: от дочерних узлов страницы.
+         */
+        String path() {
+            if (isPage()) {
+                return "";
+            }
+            if (path == null) {
+                String parentPath = parent.path();
+                path = parentPath == null || parentPath.isEmpty()
+                        ? node.getName()
+                        : parentPath + " → " + node.getName();
+            }
+            return path;
+        }
+    }
+}
@@ -2,11 +2,51 @@ package com.company.figmaintegrationservice.client;
 
 import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
 import com.company.figmaintegrationservice.client.dto.FigmaImageResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
 import com.company.figmaintegrationservice.client.dto.FigmaNodesResponse;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.company.figmaintegrationservice.dto.FigmaPageExportDto;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
 public interface IFigmaClient {
     Mono<FigmaFileResponse> getFile(String token, String fileKey);
+
+    /**
+     * Документ только со страницами, прошедшими фильтр.
+     * Остальные страницы не запрашиваются, если полного актуального документа нет в кэше.
+     */
+    Mono<FigmaFileResponse> getFile(String token, String fileKey, Predicate<PageNode> pageFilter);
     Mono<FigmaImageResponse> getImages(String token, String fileKey, String nodeIds);
     Mono<FigmaNodesResponse> getNodes(String token, String fileKey, String nodeIds, int depth);
+
+    /**
+     * Загружает выбранные узлы частями с ограниченной параллельностью.
+     * Узлы отдаются в порядке nodeIds по мере получения частей; отсутствующие в файле пропускаются.
+     * Поддерево узла может быть глубже depth (например, если узел взят из кэшированного документа),
+     * поэтому обход должен сам ограничивать глубину.
+     */
+    Flux<FigmaNode> getNodesChunked(String token, String fileKey, List<String> nodeIds, int depth);
+
+    /**
+     * Все заливки картинками файла одним запросом /files/{key}/images.
+     *
+     * @return карта imageRef → URL изображения
+     */
+    Mono<Map<String, String>> getImageFills(String token, String fileKey);
+
+    /**
+     * Потоковая выгрузка: тексты и изображения извлекаются постранично прямо из байтов ответа,
+     * без построения дерева документа.
+     */
+    Flux<FigmaPageExportDto> streamFile(String token, String fileKey);
+
+    /**
+     * Потоковая выгрузка только страниц, прошедших фильтр; остальные страницы не запрашиваются.
+     */
+    Flux<FigmaPageExportDto> streamFile(String token, String fileKey, Predicate<PageNode> pageFilter);
 }
\ No newline at end of file
@@ -1,14 +1,22 @@
 package com.company.figmaintegrationservice.client;
 
 import com.company.figmaintegrationservice.client.dto.*;
+import com.company.figmaintegrationservice.dto.FigmaPageExportDto;
+import com.company.figmaintegrationservice.mapper.FigmaMapper;
+import com.company.figmaintegrationservice.utils.FigmaNodeUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.mapstruct.factory.Mappers;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
 
 @Component
 //@Primary
@@ -182,6 +190,12 @@ public class MockFigmaClient implements IFigmaClient {
         return Mono.just(response);
     }
 
+    @Override
+    public Mono<Map<String, String>> getImageFills(String token, String fileKey) {
+        // В мок-данных у изображений сразу есть imageUrl, заливок картинками нет
+        return Mono.just(Map.of());
+    }
+
     @Override
     public Mono<FigmaNodesResponse> getNodes(String token, String fileKey, String nodeIds, int depth) {
         // Создаем простой ответ с одним узлом для мока
@@ -199,4 +213,49 @@ public class MockFigmaClient implements IFigmaClient {
         response.setNodes(nodes);
         return Mono.just(response);
     }
+
+    @Override
+    public Flux<FigmaNode> getNodesChunked(String token, String fileKey, List<String> nodeIds, int depth) {
+        return getNodes(token, fileKey, String.join(",", nodeIds), depth)
+                .flatMapIterable(response -> response.getNodes().values().stream()
+                        .map(FigmaNodesResponse.NodeWrapper::getDocument)
+                        .filter(Objects::nonNull)
+                        .toList());
+    }
+
+    @Override
+    public Mono<FigmaFileResponse> getFile(String token, String fileKey, Predicate<PageNode> pageFilter) {
+        return getFile(token, fileKey).map(file -> FigmaNodeUtils.withPages(file, pageFilter));
+    }
+
+    @Override
+    public Flux<FigmaPageExportDto> streamFile(String token, String fileKey) {
+        return streamFile(token, fileKey, page -> true);
+    }
+
+    @Override
+    public Flux<FigmaPageExportDto> streamFile(String token, String fileKey, Predicate<PageNode> pageFilter) {
+        // Мок отдаёт страницы в формате ответа /nodes, чтобы прогонять их через тот же потоковый парсер
+        ObjectMapper objectMapper = new ObjectMapper();
+        FigmaMapper figmaMapper = Mappers.getMapper(FigmaMapper.class);
+
+        return getFile(token, fileKey).flatMapMany(file -> Flux.fromIterable(file.getDocument().getChildren())
+                .filter(pageFilter)
+                .concatMap(page -> Mono.fromCallable(() -> {
+                    FigmaNode pageNode = new FigmaNode();
+                    pageNode.setId(page.getId());
+                    pageNode.setName(page.getName());
+                    pageNode.setType(page.getType());
+                    pageNode.setChildren(page.getChildren());
+
+                    Map<String, FigmaNodesResponse.NodeWrapper> nodes = new HashMap<>();
+                    nodes.put(page.getId(), new FigmaNodesResponse.NodeWrapper(pageNode));
+                    byte[] json = objectMapper.writeValueAsBytes(new FigmaNodesResponse(nodes));
+
+                    FigmaNodeStreamParser parser = new FigmaNodeStreamParser(objectMapper.getFactory(), figmaMapper, file.getVersion());
+                    List<FigmaPageExportDto> result = new ArrayList<>(parser.feed(json, 0, json.length));
+                    result.addAll(parser.finish());
+                    return result;
+                }).flatMapIterable(pages -> pages)));
+    }
 }
\ No newline at end of file
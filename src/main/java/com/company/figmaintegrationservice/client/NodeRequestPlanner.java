@@ -0,0 +1,195 @@
+package com.company.figmaintegrationservice.client;
+
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Планировщик запросов /nodes по наблюдаемому размеру страниц.
+ *
+ * Для каждой страницы запоминается размер последнего ответа в байтах и число узлов.
+ * Лёгкие страницы упаковываются в один запрос до целевого размера ответа,
+ * тяжёлые запрашиваются по одной, а страницы, не поместившиеся в лимит ответа,
+ * помечаются для загрузки по частям (страница на малой глубине + её фреймы).
+ * Для неизвестных страниц используется оценка, при которой в запрос попадает batch-size страниц.
+ */
+@Slf4j
+@Component
+public class NodeRequestPlanner {
+
+    @Value("${figma.client.batch-size:3}")
+    private int batchSize;
+
+    @Value("${figma.client.max-pages-per-request:25}")
+    private int maxPagesPerRequest;
+
+    @Value("${figma.client.target-response-mb:16}")
+    private long targetResponseMb;
+
+    @Value("${figma.client.target-nodes-per-request:50000}")
+    private long targetNodesPerRequest;
+
+    @Value("${figma.client.frames-per-request:5}")
+    private int framesPerRequest;
+
+    @Value("${figma.client.max-response-mb:100}")
+    private long maxResponseMb;
+
+    /** Предел длины списка ids в URL одного запроса (символов). */
+    @Value("${figma.client.max-ids-length:2000}")
+    private int maxIdsLength;
+
+    @Value("${figma.client.max-ids-per-request:50}")
+    private int maxIdsPerRequest;
+
+    private final Cache<String, PageStats> stats = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterAccess(Duration.ofDays(1))
+            .build();
+
+    /**
+     * Разбивает страницы на запросы с сохранением порядка.
+     */
+    public List<List<PageNode>> plan(String fileKey, List<PageNode> pages) {
+        long targetBytes = targetResponseMb * 1024 * 1024;
+        long unknownBytes = targetBytes / Math.max(1, batchSize);
+
+        List<List<PageNode>> batches = new ArrayList<>();
+        List<PageNode> current = new ArrayList<>();
+        long currentBytes = 0;
+        long currentNodes = 0;
+
+        for (PageNode page : pages) {
+            PageStats pageStats = stats.getIfPresent(key(fileKey, page.getId()));
+
+            if (pageStats != null && isHeavy(pageStats)) {
+                if (!current.isEmpty()) {
+                    batches.add(current);
+                    current = new ArrayList<>();
+                    currentBytes = 0;
+                    currentNodes = 0;
+                }
+                batches.add(List.of(page));
+                continue;
+            }
+
+            long bytes = pageStats != null ? pageStats.bytes() : unknownBytes;
+            long nodes = pageStats != null ? pageStats.nodes() : 0;
+            boolean full = current.size() >= maxPagesPerRequest
+                    || currentBytes + bytes > targetBytes
+                    || currentNodes + nodes > targetNodesPerRequest;
+            if (!current.isEmpty() && full) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+                currentNodes = 0;
+            }
+            current.add(page);
+            currentBytes += bytes;
+            currentNodes += nodes;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+
+        log.debug("🧮 {} страниц файла {} разбиты на {} запросов", pages.size(), fileKey, batches.size());
+        return batches;
+    }
+
+    /**
+     * Разбивает выбранные узлы на запросы с сохранением порядка.
+     * Запрос ограничен длиной списка ids в URL, числом узлов и ожидаемым размером ответа:
+     * для уже встречавшихся узлов берётся наблюдаемый размер, для неизвестных — доля целевого размера.
+     */
+    public List<List<String>> chunkIds(String fileKey, List<String> nodeIds) {
+        long targetBytes = targetResponseMb * 1024 * 1024;
+        long unknownBytes = targetBytes / Math.max(1, maxIdsPerRequest);
+
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentLength = 0;
+        long currentBytes = 0;
+
+        for (String nodeId : nodeIds) {
+            PageStats nodeStats = stats.getIfPresent(key(fileKey, nodeId));
+            long bytes = nodeStats != null ? nodeStats.bytes() : unknownBytes;
+            // Разделитель ',' в URL кодируется как %2C
+            int length = nodeId.length() + (current.isEmpty() ? 0 : 3);
+
+            boolean full = current.size() >= maxIdsPerRequest
+                    || currentLength + length > maxIdsLength
+                    || currentBytes + bytes > targetBytes;
+            if (!current.isEmpty() && full) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                currentLength = 0;
+                currentBytes = 0;
+                length = nodeId.length();
+            }
+            current.add(nodeId);
+            currentLength += length;
+            currentBytes += bytes;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+
+        log.debug("🧮 {} узлов файла {} разбиты на {} запросов", nodeIds.size(), fileKey, chunks.size());
+        return chunks;
+    }
+
+    /**
+     * Страница слишком тяжела для одного запроса и загружается по частям.
+     */
+    public boolean isHeavy(String fileKey, String pageId) {
+        PageStats pageStats = stats.getIfPresent(key(fileKey, pageId));
+        return pageStats != null && isHeavy(pageStats);
+    }
+
+    /**
+     * Запоминает наблюдаемый размер ответа по узлу.
+     *
+     * @param nodes число узлов в поддереве или 0, если неизвестно
+     */
+    public void record(String fileKey, String nodeId, long bytes, long nodes) {
+        stats.asMap().merge(key(fileKey, nodeId), new PageStats(bytes, nodes, false),
+                (old, fresh) -> new PageStats(fresh.bytes(), fresh.nodes() > 0 ? fresh.nodes() : old.nodes(), old.heavy()));
+    }
+
+    /**
+     * Помечает узел, ответ по которому не поместился в лимит или не уложился в таймаут.
+     */
+    public void markHeavy(String fileKey, String nodeId) {
+        stats.asMap().merge(key(fileKey, nodeId), new PageStats(0, 0, true),
+                (old, fresh) -> new PageStats(old.bytes(), old.nodes(), true));
+    }
+
+    /**
+     * Сколько фреймов тяжёлой страницы запрашивать одним вызовом.
+     */
+    public int getFramesPerRequest() {
+        return framesPerRequest;
+    }
+
+    public long getMaxResponseBytes() {
+        return maxResponseMb * 1024 * 1024;
+    }
+
+    private boolean isHeavy(PageStats pageStats) {
+        return pageStats.heavy() || pageStats.bytes() > getMaxResponseBytes() * 3 / 4;
+    }
+
+    private static String key(String fileKey, String nodeId) {
+        return fileKey + "/" + nodeId;
+    }
+
+    private record PageStats(long bytes, long nodes, boolean heavy) {
+    }
+}
@@ -0,0 +1,28 @@
+package com.company.figmaintegrationservice.client.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Map;
+
+/**
+ * DTO для ответа /files/{key}/images: все заливки картинками файла.
+ * Структура ответа: { "meta": { "images": { "imageRef": "url" } } }
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FigmaImageFillsResponse {
+    private Meta meta;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Meta {
+        private Map<String, String> images;
+    }
+}
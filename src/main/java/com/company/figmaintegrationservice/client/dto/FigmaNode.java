@@ -20,4 +20,6 @@ public class FigmaNode {
     private List<FigmaNode> children;
     private Boolean hasImageFill; // заглушка для RECTANGLE с картинкой
     private String imageUrl;
+    private List<FigmaPaint> fills;
+    private Boolean visible; // false — узел скрыт в редакторе
 }
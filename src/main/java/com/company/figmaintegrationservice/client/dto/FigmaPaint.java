@@ -0,0 +1,20 @@
+package com.company.figmaintegrationservice.client.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Заливка узла (элемент массива fills). Для заливки картинкой type = "IMAGE",
+ * а imageRef ссылается на изображение, URL которого отдаёт /files/{key}/images.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FigmaPaint {
+    private String type; // "SOLID", "IMAGE", "GRADIENT_LINEAR", ...
+    private String imageRef;
+    private Boolean visible;
+}
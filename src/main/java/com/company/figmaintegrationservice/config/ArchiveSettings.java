@@ -11,8 +11,28 @@ public class ArchiveSettings {
     private int nodeDepth = 2;
     private boolean includeText = true;
     private boolean includeImages = true;
-    private boolean includeFrames = false;
-    private boolean includeGroups = false;
+    /** Выгружать фреймы с заливкой картинкой как изображения. */
+    private boolean includeFrames = true;
+    /** Выгружать группы с заливкой картинкой как изображения. */
+    private boolean includeGroups = true;
+    /** Типы узлов для выгрузки (TEXT, RECTANGLE, ...); пусто — все типы. */
+    private String[] nodeTypes;
+    /** Регулярное выражение для имени страницы; остальные страницы не запрашиваются. */
+    private String pagePattern;
+    /** Регулярное выражение для имени узла верхнего уровня страницы (фрейма). */
+    private String framePattern;
+    /** Пропускать скрытые узлы вместе с потомками. */
+    private boolean skipHidden = false;
+    /** Скачивать изображения параллельно с выгрузкой страниц (только для полного экспорта). */
+    private boolean pipelined = false;
+    /** Хранить одинаковые по содержимому изображения один раз (blobs/) со ссылками в manifest.json. */
+    private boolean deduplicateImages = false;
+    /** Собрать архив один раз в файл на диске и отдавать из него (повторные скачивания, докачка по Range). */
+    private boolean spooled = false;
+    /** Формат архива: zip или tar.gz (сжатие блоками параллельно на всех ядрах). */
+    private String archiveFormat = "zip";
+    /** Разметка figma.json: pretty, compact или ndjson (figma.ndjson, запись на строку). */
+    private String jsonLayout = "pretty";
 
     public boolean hasFormat(String format) {
         if (registryFormats == null) return false;
@@ -22,6 +42,10 @@ public class ArchiveSettings {
         return false;
     }
 
+    public boolean isTarGz() {
+        return "tar.gz".equalsIgnoreCase(archiveFormat) || "tgz".equalsIgnoreCase(archiveFormat);
+    }
+
     public boolean isSelectedMode() {
         return "selected".equals(exportMode) && nodeIds != null && !nodeIds.isEmpty();
     }
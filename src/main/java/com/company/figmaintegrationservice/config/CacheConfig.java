@@ -1,6 +1,7 @@
 package com.company.figmaintegrationservice.config;
 
 import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
@@ -11,12 +12,18 @@ import java.time.Duration;
 @Configuration
 public class CacheConfig {
 
+    /**
+     * Записи живут долго: устаревшая запись не удаляется, а перепроверяется
+     * по версии файла (см. FigmaFileCacheService), поэтому срок хранения
+     * считается от последнего обращения.
+     */
     @Bean
-    public CacheManager cacheManager() {
+    public CacheManager cacheManager(@Value("${figma.cache.expire-after-access-hours:24}") long expireAfterAccessHours,
+                                     @Value("${figma.cache.max-size:50}") long maxSize) {
         CaffeineCacheManager cacheManager = new CaffeineCacheManager("figmaFiles");
         cacheManager.setCaffeine(Caffeine.newBuilder()
-                .expireAfterWrite(Duration.ofMinutes(10))
-                .maximumSize(50)
+                .expireAfterAccess(Duration.ofHours(expireAfterAccessHours))
+                .maximumSize(maxSize)
                 .recordStats());
         return cacheManager;
     }
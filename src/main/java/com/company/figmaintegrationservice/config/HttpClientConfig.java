@@ -1,10 +1,12 @@
 package com.company.figmaintegrationservice.config;
 
+import com.company.figmaintegrationservice.service.IMetricsService;
 import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.util.TimeValue;
 import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -21,8 +23,12 @@ public class HttpClientConfig {
     @Value("${figma.archive.timeout-seconds:600}")
     private int timeoutSeconds;
 
+    /**
+     * Пул keep-alive соединений для скачивания изображений: соединения и TLS-сессии к CDN переиспользуются
+     * между картинками. Состояние пула по хостам и ожидание соединения видны в метриках figma.http.pool.*.
+     */
     @Bean
-    public PoolingHttpClientConnectionManager poolingConnectionManager() {
+    public PoolingHttpClientConnectionManager poolingConnectionManager(IMetricsService metricsService) {
 
         SocketConfig socketConfig = SocketConfig.custom()
                 .setSoTimeout(Timeout.ofSeconds(timeoutSeconds))
@@ -31,10 +37,12 @@ public class HttpClientConfig {
         ConnectionConfig connectionConfig = ConnectionConfig.custom()
                 .setConnectTimeout(Timeout.ofSeconds(30))
                 .setSocketTimeout(Timeout.ofSeconds(timeoutSeconds))
+                // Соединение, простоявшее в пуле, проверяется перед выдачей: CDN закрывает keep-alive по таймауту
+                .setValidateAfterInactivity(TimeValue.ofSeconds(10))
                 .build();
 
         PoolingHttpClientConnectionManager manager =
-                new PoolingHttpClientConnectionManager();
+                new MeteredConnectionManager(metricsService);
 
         manager.setMaxTotal(poolSize);
         manager.setDefaultMaxPerRoute(poolSize);
@@ -49,6 +57,8 @@ public class HttpClientConfig {
         return HttpClients.custom()
                 .setConnectionManager(connectionManager)
                 .evictIdleConnections(Timeout.ofSeconds(60))
+                // Повторы и паузы после 429 выполняет ImageDownloadService вместе с RateLimitService
+                .disableAutomaticRetries()
                 .build();
     }
 
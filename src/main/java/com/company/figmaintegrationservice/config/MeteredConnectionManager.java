@@ -0,0 +1,59 @@
+package com.company.figmaintegrationservice.config;
+
+import com.company.figmaintegrationservice.service.IMetricsService;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Пул соединений с метриками по маршрутам (хостам).
+ *
+ * При первой выдаче соединения для маршрута регистрируются датчики занятых, ожидающих и свободных соединений;
+ * время ожидания каждой выдачи пишется в таймер маршрута. Маршрутов немного — это хосты CDN изображений.
+ */
+public class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final IMetricsService metricsService;
+    private final Set<HttpRoute> registeredRoutes = ConcurrentHashMap.newKeySet();
+
+    public MeteredConnectionManager(IMetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        String routeName = route.getTargetHost().toHostString();
+        if (registeredRoutes.add(route)) {
+            metricsService.registerConnectionPoolRoute(routeName,
+                    () -> getStats(route).getLeased(),
+                    () -> getStats(route).getPending(),
+                    () -> getStats(route).getAvailable());
+        }
+
+        LeaseRequest lease = super.lease(id, route, requestTimeout, state);
+        return new LeaseRequest() {
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                long start = System.nanoTime();
+                try {
+                    return lease.get(timeout);
+                } finally {
+                    metricsService.recordConnectionLeaseWait(routeName, System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return lease.cancel();
+            }
+        };
+    }
+}
@@ -6,14 +6,21 @@ import com.company.figmaintegrationservice.service.IFigmaArchiveService;
 import com.company.figmaintegrationservice.service.IFigmaExportService;
 import com.company.figmaintegrationservice.service.IMetricsService;
 import com.company.figmaintegrationservice.service.ITaskService;
+import com.company.figmaintegrationservice.service.impl.ArchiveSpoolService;
+import com.company.figmaintegrationservice.utils.HttpUtils;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @RestController
@@ -25,6 +32,16 @@ public class FigmaArchiveController {
     private final IFigmaArchiveService archiveService;
     private final ITaskService taskService;
     private final IMetricsService metricsService;
+    private final ArchiveSpoolService archiveSpoolService;
+
+    /** Атрибуты запроса, по которым Tomcat отдаёт файл через sendfile (как DefaultServlet). */
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${figma.archive.spool-ttl-minutes:30}")
+    private int spoolTtlMinutes;
 
     @GetMapping("/archive/start")
     public ResponseEntity<StartResponse> startArchive(
@@ -34,7 +51,20 @@ public class FigmaArchiveController {
             @RequestParam(required = false) String nodeIds,
             @RequestParam(required = false, defaultValue = "2") int nodeDepth,
             @RequestParam(required = false, defaultValue = "true") boolean includeRegistry,
-            @RequestParam(required = false, defaultValue = "csv") String registryFormats) {
+            @RequestParam(required = false, defaultValue = "csv") String registryFormats,
+            @RequestParam(required = false, defaultValue = "false") boolean pipelined,
+            @RequestParam(required = false, defaultValue = "true") boolean includeText,
+            @RequestParam(required = false, defaultValue = "true") boolean includeImages,
+            @RequestParam(required = false, defaultValue = "true") boolean includeFrames,
+            @RequestParam(required = false, defaultValue = "true") boolean includeGroups,
+            @RequestParam(required = false) String nodeTypes,
+            @RequestParam(required = false) String pagePattern,
+            @RequestParam(required = false) String framePattern,
+            @RequestParam(required = false, defaultValue = "false") boolean skipHidden,
+            @RequestParam(required = false, defaultValue = "false") boolean deduplicateImages,
+            @RequestParam(required = false, defaultValue = "false") boolean spooled,
+            @RequestParam(required = false, defaultValue = "zip") String archiveFormat,
+            @RequestParam(required = false, defaultValue = "pretty") String jsonLayout) {
 
         String taskId = taskService.createTask();
 
@@ -45,6 +75,19 @@ public class FigmaArchiveController {
         settings.setExportMode(exportMode);
         settings.setNodeIds(nodeIds);
         settings.setNodeDepth(nodeDepth);
+        settings.setPipelined(pipelined);
+        settings.setIncludeText(includeText);
+        settings.setIncludeImages(includeImages);
+        settings.setIncludeFrames(includeFrames);
+        settings.setIncludeGroups(includeGroups);
+        settings.setNodeTypes(nodeTypes != null ? nodeTypes.split(",") : null);
+        settings.setPagePattern(pagePattern);
+        settings.setFramePattern(framePattern);
+        settings.setSkipHidden(skipHidden);
+        settings.setDeduplicateImages(deduplicateImages);
+        settings.setSpooled(spooled);
+        settings.setArchiveFormat(archiveFormat);
+        settings.setJsonLayout(jsonLayout);
 
         taskService.setArchiveSettings(taskId, settings);
 
@@ -52,17 +95,31 @@ public class FigmaArchiveController {
             try {
                 taskService.updateProgress(taskId, 0, 1, "EXPORTING");
 
-                // Используем универсальный метод экспорта
-                FigmaExportDto exportDto = exportService.exportWithSettings(token, fileId, settings);
+                // Используем универсальный метод экспорта; в конвейерном режиме картинки
+                // скачиваются в фоне, пока выгружаются следующие страницы
+                FigmaExportDto exportDto = exportService.exportWithSettings(token, fileId, settings,
+                        imageUrl -> archiveService.prefetchImage(taskId, imageUrl));
 
                 taskService.setExportData(taskId, exportDto);
                 taskService.updateProgress(taskId, 0, exportDto.getImages().size(), "READY");
                 log.info("✅ Экспорт завершен: {} текстов, {} изображений",
                         exportDto.getTexts().size(), exportDto.getImages().size());
 
+                // Архив на диске собирается сразу, не дожидаясь запроса на скачивание
+                if (settings.isSpooled()) {
+                    spoolArchive(taskId, settings);
+                }
+
             } catch (Exception e) {
                 log.error("❌ Ошибка при экспорте", e);
                 taskService.updateProgress(taskId, 0, 1, "ERROR: " + e.getMessage());
+                archiveService.discardPrefetched(taskId);
+            } finally {
+                // Задача с архивом на диске удаляется по истечении срока при любом исходе сборки
+                if (settings.isSpooled()) {
+                    CompletableFuture.runAsync(() -> taskService.removeTask(taskId),
+                            CompletableFuture.delayedExecutor(spoolTtlMinutes, TimeUnit.MINUTES));
+                }
             }
         });
 
@@ -75,7 +132,12 @@ public class FigmaArchiveController {
     }
 
     @GetMapping("/archive/download/{taskId}")
-    public ResponseEntity<StreamingResponseBody> downloadArchive(@PathVariable String taskId) {
+    public ResponseEntity<StreamingResponseBody> downloadArchive(
+            @PathVariable String taskId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletRequest request) throws IOException {
         FigmaExportDto exportDto = taskService.getExportData(taskId);
         ArchiveSettings settings = taskService.getArchiveSettings(taskId);
 
@@ -83,6 +145,10 @@ public class FigmaArchiveController {
             return ResponseEntity.notFound().build();
         }
 
+        if (settings.isSpooled()) {
+            return downloadSpooled(taskId, settings, range, ifRange, ifNoneMatch, request);
+        }
+
         log.info("📦 Начинаем потоковую передачу архива для задачи {}, режим: {}, реестр: {}, форматы: {}",
                 taskId, settings.getExportMode(), settings.isIncludeRegistry(), String.join(",", settings.getRegistryFormats()));
 
@@ -110,11 +176,91 @@ public class FigmaArchiveController {
         };
 
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"figma-archive.zip\"")
-                .header(HttpHeaders.CONTENT_TYPE, "application/zip")
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(settings))
+                .header(HttpHeaders.CONTENT_TYPE, contentType(settings))
                 .body(stream);
     }
 
+    /**
+     * Отдаёт архив из файла на диске: с Content-Length, ETag и поддержкой Range для докачки
+     * и скачивания частями. Задача удаляется по истечении spool-ttl-minutes, а не после скачивания.
+     *
+     * Если контейнер поддерживает sendfile (Tomcat с NIO-коннектором), тело не пишется приложением:
+     * контейнер сам передаёт диапазон файла в сокет без копирования через память процесса.
+     * Иначе файл копируется в поток ответа через {@link ArchiveSpoolService#transfer}.
+     */
+    private ResponseEntity<StreamingResponseBody> downloadSpooled(String taskId, ArchiveSettings settings,
+                                                                  String range, String ifRange,
+                                                                  String ifNoneMatch,
+                                                                  HttpServletRequest request) throws IOException {
+        ArchiveSpoolService.SpooledArchive archive = spoolArchive(taskId, settings);
+
+        if (HttpUtils.matchesIfNoneMatch(ifNoneMatch, archive.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(archive.etag()).build();
+        }
+
+        // If-Range с другим ETag или с датой: архив мог измениться, докачка невозможна — отдаём целиком
+        HttpUtils.ByteRange byteRange = HttpUtils.matchesIfRange(ifRange, archive.etag())
+                ? HttpUtils.parseRange(range, archive.size())
+                : null;
+
+        if (byteRange == HttpUtils.ByteRange.UNSATISFIABLE) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + archive.size())
+                    .build();
+        }
+
+        long start = byteRange != null ? byteRange.start() : 0;
+        long length = byteRange != null ? byteRange.length() : archive.size();
+        boolean sendfile = Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+        if (sendfile) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, archive.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            // Конец диапазона для контейнера — исключительно
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+        }
+
+        ResponseEntity.BodyBuilder response = byteRange != null
+                ? ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE,
+                                "bytes " + byteRange.start() + "-" + byteRange.end() + "/" + archive.size())
+                : ResponseEntity.ok();
+
+        log.info("📦 Отдаём архив задачи {} с диска: {} из {} байт{}", taskId, length, archive.size(),
+                sendfile ? " (sendfile)" : "");
+        response.header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(settings))
+                .header(HttpHeaders.CONTENT_TYPE, contentType(settings))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .eTag(archive.etag())
+                .contentLength(length);
+        if (sendfile) {
+            return response.build();
+        }
+        return response.body(outputStream -> archiveSpoolService.transfer(archive, start, length, outputStream));
+    }
+
+    private static String contentDisposition(ArchiveSettings settings) {
+        String fileName = settings != null && settings.isTarGz() ? "figma-archive.tar.gz" : "figma-archive.zip";
+        return "attachment; filename=\"" + fileName + "\"";
+    }
+
+    private static String contentType(ArchiveSettings settings) {
+        return settings != null && settings.isTarGz() ? "application/gzip" : "application/zip";
+    }
+
+    /**
+     * Собирает архив задачи на диске (один раз) или возвращает уже собранный.
+     */
+    private ArchiveSpoolService.SpooledArchive spoolArchive(String taskId, ArchiveSettings settings) throws IOException {
+        return archiveSpoolService.getOrBuild(taskId, outputStream -> {
+            FigmaExportDto exportDto = taskService.getExportData(taskId);
+            if (exportDto == null) {
+                throw new IOException("Данные экспорта задачи " + taskId + " не найдены");
+            }
+            archiveService.streamArchive(exportDto, outputStream, taskId, taskService, settings);
+        });
+    }
+
     @GetMapping("/metrics")
     public ResponseEntity<String> metrics() {
         return ResponseEntity.ok("Metrics available at /actuator/prometheus");
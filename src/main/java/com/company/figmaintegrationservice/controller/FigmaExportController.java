@@ -18,14 +18,16 @@ public class FigmaExportController {
     private final IFigmaExportService exportService;
 
     @GetMapping("/export")
-    public StreamingResponseBody export(@RequestParam String token, @RequestParam String fileId) {
+    public StreamingResponseBody export(@RequestParam String token, @RequestParam String fileId,
+                                        @RequestParam(required = false, defaultValue = "pretty") String jsonLayout) {
+        JsonUtils.JsonLayout layout = JsonUtils.JsonLayout.of(jsonLayout);
         return outputStream -> {
             try {
                 FigmaExportDto exportDto = exportService.exportFile(token, fileId);
 
                 try (ZipOutputStream zip = new ZipOutputStream(outputStream)) {
-                    zip.putNextEntry(new ZipEntry("figma.json"));
-                    zip.write(JsonUtils.toJsonBytes(exportDto));
+                    zip.putNextEntry(new ZipEntry("figma." + layout.extension()));
+                    JsonUtils.writeExport(exportDto, zip, layout);
                     zip.closeEntry();
                 }
             } catch (Exception e) {
@@ -15,6 +15,7 @@ public class FigmaImageDto {
     private String nodeName;
     private String nodeId;
     private String imageUrl;
+    private String imageRef;
     private String path;
     private String extractedText;
 }
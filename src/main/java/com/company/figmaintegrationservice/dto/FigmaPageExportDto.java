@@ -0,0 +1,23 @@
+package com.company.figmaintegrationservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Результат извлечения одной страницы при потоковом разборе ответа /nodes.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class FigmaPageExportDto {
+    private String version;
+    private String pageId;
+    private String pageName;
+    private List<FigmaTextDto> texts;
+    private List<FigmaImageDto> images;
+}
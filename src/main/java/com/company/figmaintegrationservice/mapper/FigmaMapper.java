@@ -3,6 +3,7 @@ package com.company.figmaintegrationservice.mapper;
 import com.company.figmaintegrationservice.client.dto.FigmaNode;
 import com.company.figmaintegrationservice.dto.FigmaImageDto;
 import com.company.figmaintegrationservice.dto.FigmaTextDto;
+import com.company.figmaintegrationservice.utils.FigmaNodeUtils;
 import org.mapstruct.Mapper;
 
 @Mapper(componentModel = "spring")
@@ -28,6 +29,7 @@ public interface FigmaMapper {
         dto.setPageName(pageName);
         dto.setFrameName(frameName);
         dto.setImageUrl(node.getImageUrl());
+        dto.setImageRef(FigmaNodeUtils.imageRef(node));
         dto.setPath(path);
         return dto;
     }
@@ -22,4 +22,21 @@ public interface IFigmaArchiveService {
      */
     void streamArchive(FigmaExportDto exportDto, OutputStream outputStream,
                       String taskId, ITaskService taskService, ArchiveSettings settings) throws IOException;
+
+    /**
+     * Ставит изображение в очередь фоновой предзагрузки, чтобы к сборке архива оно уже было скачано.
+     * Блокирует вызывающий поток, только когда очередь предзагрузки заполнена.
+     *
+     * @param taskId идентификатор задачи (ключ бакета rate limiter загрузок)
+     * @param imageUrl URL изображения
+     */
+    void prefetchImage(String taskId, String imageUrl);
+
+    /**
+     * Удаляет временные файлы предзагрузки задачи, архив которой собираться не будет
+     * (ошибка экспорта или удаление задачи).
+     *
+     * @param taskId идентификатор задачи
+     */
+    void discardPrefetched(String taskId);
 }
@@ -3,6 +3,8 @@ package com.company.figmaintegrationservice.service;
 import com.company.figmaintegrationservice.config.ArchiveSettings;
 import com.company.figmaintegrationservice.dto.FigmaExportDto;
 
+import java.util.function.Consumer;
+
 /**
  * Интерфейс для сервиса экспорта данных из Figma.
  */
@@ -21,4 +23,11 @@ public interface IFigmaExportService {
      * Универсальный метод экспорта с учётом настроек.
      */
     FigmaExportDto exportWithSettings(String token, String fileId, ArchiveSettings settings);
+
+    /**
+     * Экспорт с учётом настроек; в конвейерном режиме каждый уникальный URL изображения
+     * передаётся слушателю сразу после выгрузки его страницы.
+     */
+    FigmaExportDto exportWithSettings(String token, String fileId, ArchiveSettings settings,
+                                      Consumer<String> imageListener);
 }
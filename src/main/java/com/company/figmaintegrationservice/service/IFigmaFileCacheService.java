@@ -1,6 +1,7 @@
 package com.company.figmaintegrationservice.service;
 
 import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.utils.NodeIdIndex;
 import reactor.core.publisher.Mono;
 
 import java.util.concurrent.Callable;
@@ -18,6 +19,39 @@ public interface IFigmaFileCacheService {
      */
     Mono<FigmaFileResponse> getOrCompute(String key, Callable<Mono<FigmaFileResponse>> supplier);
 
+    /**
+     * Получает значение из кэша с проверкой версии.
+     * Свежая запись возвращается сразу. Устаревшая запись перепроверяется одним дешёвым
+     * запросом версии: если версия не изменилась, запись продлевается, иначе документ вычисляется заново.
+     *
+     * @param key ключ кэша
+     * @param versionSupplier функция, возвращающая текущую версию файла
+     * @param supplier функция для вычисления значения, если его нет в кэше или версия изменилась
+     * @return Mono с результатом из кэша или вычисленным значением
+     */
+    Mono<FigmaFileResponse> getOrCompute(String key, Callable<Mono<String>> versionSupplier,
+                                         Callable<Mono<FigmaFileResponse>> supplier);
+
+    /**
+     * Возвращает документ из кэша, только если он актуален: свежий или с неизменившейся версией.
+     * Документ не вычисляется; если его нет в кэше или версия изменилась, результат пустой.
+     *
+     * @param key ключ кэша
+     * @param versionSupplier функция, возвращающая текущую версию файла
+     * @return Mono с документом из кэша или пустой Mono
+     */
+    Mono<FigmaFileResponse> getIfCurrent(String key, Callable<Mono<String>> versionSupplier);
+
+    /**
+     * Индекс ID узлов актуального документа из кэша (строится один раз на запись).
+     * Условия актуальности те же, что у {@link #getIfCurrent}.
+     *
+     * @param key ключ кэша
+     * @param versionSupplier функция, возвращающая текущую версию файла
+     * @return Mono с индексом или пустой Mono
+     */
+    Mono<NodeIdIndex> getNodeIndexIfCurrent(String key, Callable<Mono<String>> versionSupplier);
+
     /**
      * Очищает кэш для указанного ключа.
      */
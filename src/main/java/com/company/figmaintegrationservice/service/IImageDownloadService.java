@@ -1,6 +1,14 @@
 package com.company.figmaintegrationservice.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 /**
  * Интерфейс для сервиса загрузки изображений.
@@ -11,9 +19,79 @@ public interface IImageDownloadService {
      *
      * @param imageUrl URL изображения
      * @param maxRetries максимальное количество попыток
+     * @param rateLimitKey ключ бакета rate limiter (у каждой задачи свой, чтобы задачи не тормозили друг друга)
      * @return массив байтов изображения или null, если не удалось скачать
      * @throws IOException если произошла ошибка при загрузке
      * @throws InterruptedException если поток был прерван
      */
-    byte[] downloadImageWithRetry(String imageUrl, int maxRetries) throws IOException, InterruptedException;
+    byte[] downloadImageWithRetry(String imageUrl, int maxRetries, String rateLimitKey)
+            throws IOException, InterruptedException;
+
+    /**
+     * Потоковая загрузка: тело ответа читается небольшим буфером, изображения до порога остаются в памяти,
+     * крупнее — записываются во временный файл. Вместе с телом возвращается CRC32, посчитанная при загрузке.
+     * Вызывающий закрывает результат, после чего временный файл удаляется.
+     *
+     * @param rateLimitKey ключ бакета rate limiter (у каждой задачи свой)
+     * @return изображение или null, если не удалось скачать
+     */
+    DownloadedImage downloadImage(String imageUrl, int maxRetries, String rateLimitKey)
+            throws IOException, InterruptedException;
+
+    /**
+     * Скачанное изображение: байты в памяти ({@code data}) или временный файл ({@code file}),
+     * размер и CRC32 (нужна для записи в ZIP без сжатия).
+     */
+    record DownloadedImage(byte[] data, Path file, long size, long crc32) implements Closeable {
+
+        public DownloadedImage(byte[] data, long crc32) {
+            this(data, null, data.length, crc32);
+        }
+
+        public boolean inMemory() {
+            return file == null;
+        }
+
+        public InputStream openStream() throws IOException {
+            return inMemory() ? new ByteArrayInputStream(data) : Files.newInputStream(file);
+        }
+
+        public byte[] readAllBytes() throws IOException {
+            return inMemory() ? data : Files.readAllBytes(file);
+        }
+
+        /**
+         * SHA-256 содержимого в шестнадцатеричном виде (ключ дедупликации по содержимому).
+         */
+        public String sha256() throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            if (inMemory()) {
+                digest.update(data);
+            } else {
+                try (InputStream in = openStream()) {
+                    byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, bytesRead);
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        /**
+         * Удаляет временный файл; для изображения в памяти ничего не делает.
+         */
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.company.figmaintegrationservice.service;
 
 import java.util.concurrent.Callable;
+import java.util.function.IntSupplier;
 
 /**
  * Интерфейс для сервиса метрик.
@@ -35,4 +36,44 @@ public interface IMetricsService {
      * Уменьшает счетчик активных загрузок.
      */
     void decrementActiveDownloads();
+
+    /**
+     * Увеличивает счетчик загрузок документа, выполненных самим вызывающим.
+     */
+    void recordFileLoadOriginated();
+
+    /**
+     * Увеличивает счетчик вызовов, присоединившихся к уже идущей загрузке документа.
+     */
+    void recordFileLoadCoalesced();
+
+    /**
+     * Увеличивает число готовых записей, ожидающих потока записи ZIP.
+     */
+    void incrementZipQueueDepth();
+
+    /**
+     * Уменьшает число готовых записей, ожидающих потока записи ZIP.
+     */
+    void decrementZipQueueDepth();
+
+    /**
+     * Фиксирует время, которое поток записи ZIP ждал следующую по порядку запись.
+     */
+    void recordZipWriterStall(long nanos);
+
+    /**
+     * Учитывает запись ZIP: исходный и записанный размер по способу хранения (stored/deflated).
+     */
+    void recordZipEntry(boolean stored, long size, long compressedSize);
+
+    /**
+     * Регистрирует состояние пула HTTP-соединений для маршрута (хоста): занятые, ожидающие выдачи и свободные.
+     */
+    void registerConnectionPoolRoute(String route, IntSupplier leased, IntSupplier pending, IntSupplier available);
+
+    /**
+     * Фиксирует время ожидания соединения из пула для маршрута.
+     */
+    void recordConnectionLeaseWait(String route, long nanos);
 }
@@ -1,23 +1,88 @@
 package com.company.figmaintegrationservice.service;
 
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
 /**
  * Интерфейс для сервиса ограничения скорости запросов (rate limiting).
+ * Лимиты ведутся отдельно для каждого токена Figma; методы без токена
+ * используют общий бакет для запросов, не привязанных к токену.
  */
 public interface IRateLimitService {
+
     /**
-     * Получает разрешение на выполнение запроса.
+     * Префикс ключей загрузок изображений (CDN Figma, а не api.figma.com).
+     * Такие ключи ограничиваются собственным общим потолком и не расходуют потолок запросов к API.
+     */
+    String IMAGE_KEY_PREFIX = "images:";
+
+    /**
+     * Получает разрешение на выполнение запроса от имени токена.
      * Блокирует поток до получения разрешения в соответствии с лимитом.
      *
+     * @param token токен Figma, по которому ведётся лимит (null — общий бакет)
      * @throws InterruptedException если поток был прерван во время ожидания
      */
-    void acquire() throws InterruptedException;
+    void acquire(String token) throws InterruptedException;
 
     /**
-     * Получает разрешение на выполнение запроса с таймаутом.
+     * Получает разрешение на выполнение запроса от имени токена с таймаутом.
      *
+     * @param token     токен Figma, по которому ведётся лимит (null — общий бакет)
      * @param timeoutMs таймаут в миллисекундах
      * @return true если разрешение получено, false если истек таймаут
      * @throws InterruptedException если поток был прерван во время ожидания
      */
-    boolean tryAcquire(long timeoutMs) throws InterruptedException;
+    boolean tryAcquire(String token, long timeoutMs) throws InterruptedException;
+
+    /**
+     * Реактивный вариант {@link #acquire(String)}: завершается, когда получено разрешение.
+     * Ожидание выполняется таймером и не занимает поток.
+     */
+    Mono<Void> acquireReactive(String token);
+
+    /**
+     * Сообщает об успешном ответе API для токена. Скорость токена увеличивается аддитивно.
+     */
+    void onSuccess(String token);
+
+    /**
+     * Сообщает об ответе 429 для токена. Скорость токена уменьшается мультипликативно,
+     * а Retry-After задаёт паузу для всех ожидающих запросов этого токена.
+     *
+     * @param retryAfter значение заголовка Retry-After или null, если его нет
+     */
+    void onRateLimited(String token, Duration retryAfter);
+
+    /**
+     * Возвращает текущую разрешённую скорость токена (запросов в секунду).
+     */
+    double getCurrentRate(String token);
+
+    /**
+     * Возвращает суммарную разрешённую скорость по всем активным токенам
+     * с учётом общего потолка (запросов в секунду).
+     */
+    double getCurrentRate();
+
+    default void acquire() throws InterruptedException {
+        acquire(null);
+    }
+
+    default boolean tryAcquire(long timeoutMs) throws InterruptedException {
+        return tryAcquire(null, timeoutMs);
+    }
+
+    default Mono<Void> acquireReactive() {
+        return acquireReactive(null);
+    }
+
+    default void onSuccess() {
+        onSuccess(null);
+    }
+
+    default void onRateLimited(Duration retryAfter) {
+        onRateLimited(null, retryAfter);
+    }
 }
@@ -0,0 +1,136 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket с резервированием слотов и адаптацией скорости по схеме AIMD.
+ * Каждый успешный ответ увеличивает скорость на фиксированный шаг,
+ * ответ 429 умножает её на decreaseFactor, а Retry-After выставляет паузу.
+ *
+ * Пауза сдвигает ближайший свободный слот за свой конец. Слоты, выданные до паузы и попавшие в неё,
+ * недействительны: держатель обязан проверить {@link #isCoolingDown} и зарезервировать слот заново,
+ * тогда после паузы запросы идут с интервалом текущей скорости, а не пачкой.
+ */
+class AdaptiveTokenBucket {
+
+    /**
+     * Срок резерва «без ограничения». Моменты System.nanoTime сравниваются через разность,
+     * а разность с Long.MAX_VALUE переполняется при отрицательном nanoTime — поэтому это значение
+     * обрабатывается отдельно, а не как обычный момент времени.
+     */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+
+    private volatile double currentRate;
+    /** Интервал между разрешениями при текущей скорости. */
+    private long intervalNanos;
+    /** Ближайший свободный слот (System.nanoTime). */
+    private long nextFreeNanos;
+    /** Момент (System.nanoTime), до которого все запросы ждут из-за Retry-After. */
+    private volatile long cooldownUntilNanos;
+    /** Момент последнего снижения скорости — пачка 429 от одновременных запросов снижает её один раз. */
+    private long lastDecreaseNanos;
+
+    AdaptiveTokenBucket(double initialRate, double minRate, double maxRate,
+                        double additiveIncrease, double decreaseFactor) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.currentRate = clamp(initialRate);
+        this.intervalNanos = toIntervalNanos(currentRate);
+        this.cooldownUntilNanos = System.nanoTime();
+        this.nextFreeNanos = cooldownUntilNanos;
+        this.lastDecreaseNanos = cooldownUntilNanos - TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Резервирует ближайший слот не раньше notBeforeNanos с учётом паузы Retry-After.
+     *
+     * @param notBeforeNanos самый ранний допустимый момент (System.nanoTime)
+     * @param deadlineNanos  самый поздний допустимый момент слота или {@link #NO_DEADLINE}
+     * @return момент слота или {@link Long#MIN_VALUE}, если слот позже deadlineNanos
+     */
+    synchronized long reserve(long notBeforeNanos, long deadlineNanos) {
+        long slot = later(later(notBeforeNanos, nextFreeNanos), cooldownUntilNanos);
+        if (deadlineNanos != NO_DEADLINE && slot - deadlineNanos > 0) {
+            return Long.MIN_VALUE;
+        }
+        nextFreeNanos = slot + intervalNanos;
+        return slot;
+    }
+
+    /**
+     * Возвращает неиспользованный слот. Слот возвращается, только если после него ничего не резервировали;
+     * иначе интервал теряется — следующие держатели уже ждут своих слотов, и сдвигать их нельзя.
+     */
+    synchronized void release(long slot) {
+        if (nextFreeNanos == slot + intervalNanos) {
+            nextFreeNanos = slot;
+        }
+    }
+
+    synchronized void increase() {
+        if (currentRate >= maxRate) {
+            return;
+        }
+        setRate(currentRate + additiveIncrease);
+    }
+
+    /**
+     * @return true, если скорость была снижена (первый 429 в пачке)
+     */
+    synchronized boolean decrease(Duration retryAfter) {
+        long now = System.nanoTime();
+
+        if (retryAfter != null && !retryAfter.isZero()) {
+            long until = now + retryAfter.toNanos();
+            if (until - cooldownUntilNanos > 0) {
+                cooldownUntilNanos = until;
+            }
+            nextFreeNanos = later(nextFreeNanos, cooldownUntilNanos);
+        }
+
+        long guardNanos = Math.max(TimeUnit.SECONDS.toNanos(1), retryAfter != null ? retryAfter.toNanos() : 0);
+        if (now - lastDecreaseNanos < guardNanos) {
+            return false;
+        }
+        lastDecreaseNanos = now;
+        setRate(currentRate * decreaseFactor);
+        return true;
+    }
+
+    double getCurrentRate() {
+        return currentRate;
+    }
+
+    long getCooldownUntilNanos() {
+        return cooldownUntilNanos;
+    }
+
+    boolean isCoolingDown(long nowNanos) {
+        return cooldownUntilNanos - nowNanos > 0;
+    }
+
+    private void setRate(double rate) {
+        currentRate = clamp(rate);
+        intervalNanos = toIntervalNanos(currentRate);
+    }
+
+    private double clamp(double rate) {
+        return Math.max(minRate, Math.min(maxRate, rate));
+    }
+
+    private static long toIntervalNanos(double rate) {
+        return (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    static long later(long a, long b) {
+        return a - b >= 0 ? a : b;
+    }
+}
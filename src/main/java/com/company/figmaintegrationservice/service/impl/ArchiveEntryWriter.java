@@ -0,0 +1,48 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Контейнер архива (ZIP или tar.gz), в который пишет {@link ArchiveWriterStage}.
+ * Методы записи возвращают число байт, отправленных в контейнер, — по нему стадия решает, когда сбрасывать поток.
+ */
+interface ArchiveEntryWriter extends Closeable {
+
+    /**
+     * Пишет файл (метаданные, реестры, манифест).
+     */
+    long write(String entryName, byte[] data) throws IOException;
+
+    /**
+     * Пишет файл, содержимое которого генерируется прямо в поток записи (figma.json).
+     * Поток записи закрывать не нужно.
+     */
+    long write(String entryName, EntryContent content) throws IOException;
+
+    /**
+     * Пишет изображение из памяти или временного файла.
+     */
+    long writeImage(String entryName, DownloadedImage image) throws IOException;
+
+    /**
+     * Передаёт клиенту уже готовые данные.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Завершает контейнер; поток ответа закрывается в {@link #close()}.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Генератор содержимого записи.
+     */
+    @FunctionalInterface
+    interface EntryContent {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
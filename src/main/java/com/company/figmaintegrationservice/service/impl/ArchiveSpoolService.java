@@ -0,0 +1,172 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Архивы, собранные один раз в файл на диске (spool) и отдаваемые из него.
+ *
+ * Сборка для задачи выполняется один раз: параллельные запросы ждут ту же сборку.
+ * Повторные скачивания и докачка по Range читают готовый файл без повторной загрузки картинок
+ * и пересжатия. Файл удаляется вместе с задачей; файлы прошлых запусков удаляются при старте,
+ * так как задачи хранятся только в памяти.
+ */
+@Slf4j
+@Service
+public class ArchiveSpoolService implements InitializingBean {
+
+    @Value("${figma.archive.spool-directory:${java.io.tmpdir}/figma-archives}")
+    private String spoolDirectory;
+
+    private final Map<String, CompletableFuture<SpooledArchive>> spools = new ConcurrentHashMap<>();
+
+    private Path directory;
+
+    /**
+     * Готовый архив: файл, размер и ETag (меняется при пересборке).
+     */
+    public record SpooledArchive(Path file, long size, String etag) {
+    }
+
+    /**
+     * Запись архива в поток.
+     */
+    @FunctionalInterface
+    public interface ArchiveWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        directory = Path.of(spoolDirectory);
+        Files.createDirectories(directory);
+        int removed = 0;
+        // .zip — файлы прежних версий, когда архив всегда был ZIP
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{archive,zip,part}")) {
+            for (Path file : files) {
+                if (Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            }
+        }
+        log.info("💾 Каталог архивов: {} (удалено оставшихся файлов: {})", directory, removed);
+    }
+
+    /**
+     * Возвращает архив задачи, собирая его при первом обращении.
+     */
+    public SpooledArchive getOrBuild(String taskId, ArchiveWriter writer) throws IOException {
+        CompletableFuture<SpooledArchive> created = new CompletableFuture<>();
+        CompletableFuture<SpooledArchive> existing = spools.putIfAbsent(taskId, created);
+        if (existing == null) {
+            try {
+                SpooledArchive archive = build(taskId, writer);
+                created.complete(archive);
+                // Задачу удалили во время сборки — файл никому не нужен
+                if (spools.get(taskId) != created) {
+                    Files.deleteIfExists(archive.file());
+                }
+            } catch (Exception e) {
+                spools.remove(taskId, created);
+                created.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return (existing != null ? existing : created).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Ошибка сборки архива: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Передаёт диапазон файла архива в поток ответа через {@link FileChannel#transferTo}.
+     * Поток ответа — не сокет, поэтому JDK копирует данные через буфер; используется,
+     * когда контейнер не поддерживает sendfile.
+     */
+    public void transfer(SpooledArchive archive, long start, long length, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive.file(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    // Файл короче заявленного Content-Length: обрываем ответ, а не отдаём его неполным
+                    throw new IOException("Архив " + archive.file() + " прочитан не полностью: не передано "
+                            + remaining + " байт");
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Удаляет архив задачи (вызывается при удалении задачи).
+     */
+    public void delete(String taskId) {
+        spools.remove(taskId);
+        try {
+            Files.deleteIfExists(archivePath(taskId));
+            Files.deleteIfExists(partPath(taskId));
+        } catch (IOException e) {
+            log.warn("⚠️ Не удалось удалить архив задачи {}: {}", taskId, e.getMessage());
+        }
+    }
+
+    private SpooledArchive build(String taskId, ArchiveWriter writer) throws IOException {
+        Path part = partPath(taskId);
+        Path file = archivePath(taskId);
+        long startTime = System.currentTimeMillis();
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part))) {
+                writer.write(out);
+            }
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+
+        long size = Files.size(file);
+        String etag = "\"" + taskId + "-" + Long.toHexString(size) + "-"
+                + Long.toHexString(Files.getLastModifiedTime(file).toMillis()) + "\"";
+        log.info("💾 Архив задачи {} собран на диске: {} байт за {} мс",
+                taskId, size, System.currentTimeMillis() - startTime);
+        return new SpooledArchive(file, size, etag);
+    }
+
+    /**
+     * Файл архива без расширения формата: формат (ZIP или tar.gz) задаётся настройками задачи.
+     */
+    private Path archivePath(String taskId) {
+        return directory.resolve(taskId + ".archive");
+    }
+
+    private Path partPath(String taskId) {
+        return directory.resolve(taskId + ".part");
+    }
+}
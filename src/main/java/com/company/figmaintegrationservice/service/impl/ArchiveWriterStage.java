@@ -0,0 +1,261 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
+import com.company.figmaintegrationservice.service.IMetricsService;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Стадия записи архива: в архив (ZIP или tar.gz) пишет только один поток, загрузчики лишь передают ему готовые данные.
+ *
+ * Каждое изображение получает порядковый номер. Загрузчик резервирует номер до начала загрузки,
+ * и резерв выдаётся, только пока номер меньше следующего записываемого плюс ёмкость окна.
+ * Поэтому готовых изображений не больше {@code capacity}, записи идут в архив в исходном порядке,
+ * а номер, которого ждёт поток записи, всегда уже допущен к загрузке. Изображения крупнее порога загрузчик
+ * держит во временном файле, поэтому в памяти окно занимает не больше {@code capacity} порогов.
+ *
+ * В поток ответа данные сбрасываются по накоплении {@code flushThreshold} байт, а не после каждой записи.
+ * Временный файл крупного изображения удаляется сразу после записи.
+ *
+ * Если загрузчик передал имя blob-записи (хэш содержимого), изображение пишется один раз под этим именем,
+ * а записи узлов попадают в манифест «запись → blob» вместо копий байтов.
+ */
+final class ArchiveWriterStage {
+
+    private record Payload(List<String> entryNames, DownloadedImage image, String blobName) {
+    }
+
+    private static final Payload SKIPPED = new Payload(List.of(), null, null);
+
+    private final ArchiveEntryWriter archive;
+    private final IMetricsService metricsService;
+    private final long flushThreshold;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition windowOpen = lock.newCondition();
+    private final Condition headReady = lock.newCondition();
+    private final Payload[] slots;
+    private int next;
+    private IOException failure;
+    private long unflushed;
+
+    // Состояние дедупликации; меняется только потоком записи
+    private final Set<String> writtenBlobs = new HashSet<>();
+    private final Map<String, String> manifest = new LinkedHashMap<>();
+
+    ArchiveWriterStage(ArchiveEntryWriter archive, IMetricsService metricsService, int capacity, long flushThreshold) {
+        this.archive = archive;
+        this.metricsService = metricsService;
+        this.slots = new Payload[Math.max(1, capacity)];
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Пишет запись сразу; вызывается только из потока записи (метаданные и реестры до начала загрузок).
+     */
+    void write(String entryName, byte[] data) throws IOException {
+        written(archive.write(entryName, data));
+    }
+
+    /**
+     * Пишет запись, содержимое которой генерируется прямо в архив; вызывается только из потока записи.
+     */
+    void write(String entryName, ArchiveEntryWriter.EntryContent content) throws IOException {
+        written(archive.write(entryName, content));
+    }
+
+    /**
+     * Ждёт, пока номер попадёт в окно. Вызывается загрузчиком до начала загрузки.
+     *
+     * @throws IOException если запись архива уже прервана
+     */
+    void reserve(int sequence) throws InterruptedException, IOException {
+        lock.lock();
+        try {
+            while (failure == null && sequence >= next + slots.length) {
+                windowOpen.await();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Передаёт потоку записи результат загрузки. Не блокируется: слот уже зарезервирован.
+     *
+     * @param image изображение или null, если изображение пропускается
+     */
+    void complete(int sequence, List<String> entryNames, DownloadedImage image) {
+        complete(sequence, entryNames, image, null);
+    }
+
+    /**
+     * Передаёт потоку записи результат загрузки, хранимый по содержимому.
+     *
+     * @param blobName имя записи для содержимого или null, если изображение пишется в каждую запись узла
+     */
+    void complete(int sequence, List<String> entryNames, DownloadedImage image, String blobName) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                release(image);
+                return;
+            }
+            if (image != null && image.size() > 0) {
+                slots[sequence % slots.length] = new Payload(entryNames, image, blobName);
+                metricsService.incrementZipQueueDepth();
+            } else {
+                slots[sequence % slots.length] = SKIPPED;
+            }
+            if (sequence == next) {
+                headReady.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Прерывает запись: ожидающие резерва загрузчики и поток записи получат IOException.
+     */
+    void abort(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+                for (int i = 0; i < slots.length; i++) {
+                    if (slots[i] != null && slots[i] != SKIPPED) {
+                        metricsService.decrementZipQueueDepth();
+                        release(slots[i].image());
+                    }
+                    slots[i] = null;
+                }
+            }
+            windowOpen.signalAll();
+            headReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Цикл потока записи: пишет записи с номерами от 0 до {@code total - 1} в порядке номеров.
+     * Любая ошибка потока записи, включая прерывание ожидания, прерывает запись через {@link #abort},
+     * чтобы загрузчики не ждали места в окне бесконечно.
+     */
+    void drain(int total) throws IOException, InterruptedException {
+        try {
+            drainInOrder(total);
+        } catch (Throwable e) {
+            abort(e);
+            throw e;
+        }
+    }
+
+    private void drainInOrder(int total) throws IOException, InterruptedException {
+        while (true) {
+            Payload payload;
+            lock.lock();
+            try {
+                if (next >= total) {
+                    break;
+                }
+                int slot = next % slots.length;
+                long waitStart = 0;
+                while (failure == null && slots[slot] == null) {
+                    if (waitStart == 0) {
+                        waitStart = System.nanoTime();
+                    }
+                    headReady.await();
+                }
+                if (waitStart != 0) {
+                    metricsService.recordZipWriterStall(System.nanoTime() - waitStart);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                payload = slots[slot];
+                slots[slot] = null;
+            } finally {
+                lock.unlock();
+            }
+
+            if (payload != SKIPPED) {
+                metricsService.decrementZipQueueDepth();
+                try {
+                    if (payload.blobName() == null) {
+                        for (String entryName : payload.entryNames()) {
+                            written(archive.writeImage(entryName, payload.image()));
+                        }
+                    } else {
+                        if (writtenBlobs.add(payload.blobName())) {
+                            written(archive.writeImage(payload.blobName(), payload.image()));
+                        }
+                        for (String entryName : payload.entryNames()) {
+                            manifest.put(entryName, payload.blobName());
+                        }
+                    }
+                } finally {
+                    release(payload.image());
+                }
+            }
+
+            lock.lock();
+            try {
+                next++;
+                windowOpen.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        archive.flush();
+        unflushed = 0;
+    }
+
+    /**
+     * Манифест дедупликации «запись узла → blob-запись»; читается после {@link #drain}.
+     */
+    Map<String, String> getManifest() {
+        return Collections.unmodifiableMap(manifest);
+    }
+
+    /**
+     * Число различных изображений, записанных по содержимому.
+     */
+    int getBlobCount() {
+        return writtenBlobs.size();
+    }
+
+    /**
+     * Удаляет временный файл изображения после записи или при отмене.
+     */
+    private static void release(DownloadedImage image) {
+        if (image == null) {
+            return;
+        }
+        try {
+            image.close();
+        } catch (IOException ignored) {
+            // Временный файл остаётся в каталоге временных файлов
+        }
+    }
+
+    private void written(long bytes) throws IOException {
+        unflushed += bytes;
+        if (unflushed >= flushThreshold) {
+            archive.flush();
+            unflushed = 0;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.utils.NodeIdIndex;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Запись кэша figmaFiles: документ, его версия и момент последней проверки версии.
+ * Индекс ID узлов строится при первом обращении и переживает продление записи.
+ */
+@Getter
+@RequiredArgsConstructor
+class CachedFigmaFile {
+
+    private final String version;
+    private final FigmaFileResponse document;
+    private final Instant validatedAt;
+
+    @Getter(AccessLevel.NONE)
+    private volatile NodeIdIndex nodeIndex;
+
+    boolean isFresh(Duration revalidateAfter, Instant now) {
+        return validatedAt.plus(revalidateAfter).isAfter(now);
+    }
+
+    boolean matches(String currentVersion) {
+        return version != null && version.equals(currentVersion);
+    }
+
+    CachedFigmaFile revalidated(Instant now) {
+        CachedFigmaFile revalidated = new CachedFigmaFile(version, document, now);
+        revalidated.nodeIndex = nodeIndex;
+        return revalidated;
+    }
+
+    NodeIdIndex nodeIndex() {
+        NodeIdIndex index = nodeIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nodeIndex;
+                if (index == null) {
+                    index = NodeIdIndex.build(document);
+                    nodeIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,212 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.dto.FigmaExportDto;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Компактное хранение результата экспорта в памяти задачи.
+ *
+ * Все повторяющиеся строки (страницы, фреймы, имена, URL, тексты) хранятся один раз в словаре,
+ * записи — столбцами int-индексов словаря. Путь делится по последнему разделителю " → ":
+ * путь родителя общий у всех соседей и тоже попадает в словарь, поэтому длинные пути не повторяются.
+ *
+ * {@link #toExportDto()} отдаёт FigmaExportDto со списками-представлениями: объект записи создаётся
+ * при каждом обращении к элементу и не удерживается, поэтому исходные списки объектов не восстанавливаются.
+ * Представления только для чтения; изменения полученных записей не сохраняются.
+ */
+class CompactFigmaExport {
+
+    private static final String PATH_SEPARATOR = " → ";
+    private static final int NULL = -1;
+
+    private final String version;
+    private final String[] strings;
+    private final TextColumns texts;
+    private final ImageColumns images;
+
+    private CompactFigmaExport(String version, String[] strings, TextColumns texts, ImageColumns images) {
+        this.version = version;
+        this.strings = strings;
+        this.texts = texts;
+        this.images = images;
+    }
+
+    static CompactFigmaExport of(FigmaExportDto exportDto) {
+        Dictionary dictionary = new Dictionary();
+        List<FigmaTextDto> textList = exportDto.getTexts() != null ? exportDto.getTexts() : List.of();
+        List<FigmaImageDto> imageList = exportDto.getImages() != null ? exportDto.getImages() : List.of();
+
+        TextColumns texts = new TextColumns(textList.size());
+        int i = 0;
+        for (FigmaTextDto text : textList) {
+            texts.common.set(i, dictionary, text.getPageName(), text.getFrameName(), text.getNodeName(),
+                    text.getNodeId(), text.getPath());
+            texts.text[i] = dictionary.id(text.getText());
+            i++;
+        }
+
+        ImageColumns images = new ImageColumns(imageList.size());
+        i = 0;
+        for (FigmaImageDto image : imageList) {
+            images.common.set(i, dictionary, image.getPageName(), image.getFrameName(), image.getNodeName(),
+                    image.getNodeId(), image.getPath());
+            images.imageUrl[i] = dictionary.id(image.getImageUrl());
+            images.imageRef[i] = dictionary.id(image.getImageRef());
+            images.extractedText[i] = dictionary.id(image.getExtractedText());
+            i++;
+        }
+
+        return new CompactFigmaExport(exportDto.getVersion(), dictionary.toArray(), texts, images);
+    }
+
+    FigmaExportDto toExportDto() {
+        return new FigmaExportDto(version, new TextView(), new ImageView());
+    }
+
+    int getTextCount() {
+        return texts.text.length;
+    }
+
+    int getImageCount() {
+        return images.imageUrl.length;
+    }
+
+    /**
+     * Число уникальных строк в словаре.
+     */
+    int getDictionarySize() {
+        return strings.length;
+    }
+
+    private String string(int id) {
+        return id == NULL ? null : strings[id];
+    }
+
+    private String path(Columns columns, int index) {
+        String suffix = string(columns.pathSuffix[index]);
+        int prefix = columns.pathPrefix[index];
+        return prefix == NULL ? suffix : strings[prefix] + PATH_SEPARATOR + suffix;
+    }
+
+    private class TextView extends AbstractList<FigmaTextDto> implements RandomAccess {
+
+        @Override
+        public FigmaTextDto get(int index) {
+            Columns c = texts.common;
+            return new FigmaTextDto(string(c.pageName[index]), string(c.frameName[index]), string(c.nodeName[index]),
+                    c.nodeId[index], string(texts.text[index]), path(c, index));
+        }
+
+        @Override
+        public int size() {
+            return texts.text.length;
+        }
+    }
+
+    private class ImageView extends AbstractList<FigmaImageDto> implements RandomAccess {
+
+        @Override
+        public FigmaImageDto get(int index) {
+            Columns c = images.common;
+            return new FigmaImageDto(string(c.pageName[index]), string(c.frameName[index]), string(c.nodeName[index]),
+                    c.nodeId[index], string(images.imageUrl[index]), string(images.imageRef[index]),
+                    path(c, index), string(images.extractedText[index]));
+        }
+
+        @Override
+        public int size() {
+            return images.imageUrl.length;
+        }
+    }
+
+    /**
+     * Общие столбцы текстов и изображений.
+     */
+    private static final class Columns {
+        final int[] pageName;
+        final int[] frameName;
+        final int[] nodeName;
+        final String[] nodeId;
+        final int[] pathPrefix;
+        final int[] pathSuffix;
+
+        Columns(int size) {
+            pageName = new int[size];
+            frameName = new int[size];
+            nodeName = new int[size];
+            nodeId = new String[size];
+            pathPrefix = new int[size];
+            pathSuffix = new int[size];
+        }
+
+        void set(int i, Dictionary dictionary, String page, String frame, String name, String id, String path) {
+            pageName[i] = dictionary.id(page);
+            frameName[i] = dictionary.id(frame);
+            nodeName[i] = dictionary.id(name);
+            nodeId[i] = id;
+
+            int separator = path != null ? path.lastIndexOf(PATH_SEPARATOR) : -1;
+            if (separator < 0) {
+                pathPrefix[i] = NULL;
+                pathSuffix[i] = dictionary.id(path);
+            } else {
+                pathPrefix[i] = dictionary.id(path.substring(0, separator));
+                pathSuffix[i] = dictionary.id(path.substring(separator + PATH_SEPARATOR.length()));
+            }
+        }
+    }
+
+    private static final class TextColumns {
+        final Columns common;
+        final int[] text;
+
+        TextColumns(int size) {
+            common = new Columns(size);
+            text = new int[size];
+        }
+    }
+
+    private static final class ImageColumns {
+        final Columns common;
+        final int[] imageUrl;
+        final int[] imageRef;
+        final int[] extractedText;
+
+        ImageColumns(int size) {
+            common = new Columns(size);
+            imageUrl = new int[size];
+            imageRef = new int[size];
+            extractedText = new int[size];
+        }
+    }
+
+    /**
+     * Словарь строк на время построения; после построения остаётся только массив строк.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int id(String value) {
+            if (value == null) {
+                return NULL;
+            }
+            return ids.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+
+        String[] toArray() {
+            return values.toArray(new String[0]);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.company.figmaintegrationservice.dto.FigmaImageDto;
 import com.company.figmaintegrationservice.service.IFigmaArchiveService;
 import com.company.figmaintegrationservice.service.IImageDownloadService;
 import com.company.figmaintegrationservice.service.IMetricsService;
+import com.company.figmaintegrationservice.service.IRateLimitService;
 import com.company.figmaintegrationservice.service.IRegistryService;
 import com.company.figmaintegrationservice.service.ITaskService;
 import com.company.figmaintegrationservice.service.impl.ImagePathService;
@@ -17,14 +18,18 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 @Slf4j
 @Service
@@ -53,20 +58,131 @@ public class FigmaArchiveService implements IFigmaArchiveService, InitializingBe
     @Value("${archive.registry-formats:csv}")
     private String[] defaultRegistryFormats;
 
+    @Value("${figma.archive.prefetch-queue-size:256}")
+    private int prefetchQueueSize;
+
+    @Value("${figma.archive.prefetch-ttl-minutes:60}")
+    private long prefetchTtlMinutes;
+
+    @Value("${figma.archive.write-queue-size:32}")
+    private int writeQueueSize;
+
+    @Value("${figma.archive.flush-threshold-kb:256}")
+    private int flushThresholdKb;
+
+    @Value("${figma.archive.gzip-block-kb:1024}")
+    private int gzipBlockKb;
+
+    @Value("${figma.archive.deflate-level:-1}")
+    private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+
     // Семафор для ограничения количества одновременных загрузок
     private Semaphore downloadSemaphore;
 
+    // Семафор для ограничения числа изображений, ожидающих предзагрузки
+    private Semaphore prefetchSlots;
+
+    // Крупные изображения, скачанные предзагрузкой во временные файлы, по задачам; принадлежат сборке архива
+    private final Map<String, PrefetchedImages> prefetchedByTask = new ConcurrentHashMap<>();
+
     @Override
     public void afterPropertiesSet() {
         downloadSemaphore = new Semaphore(maxConcurrentDownloads);
+        prefetchSlots = new Semaphore(prefetchQueueSize);
         log.info("🚦 Семафор инициализирован: максимум {} одновременных загрузок", maxConcurrentDownloads);
     }
 
+    /**
+     * Предзагрузка скачивает изображение в кэш ImageDownloadService под тем же семафором загрузок,
+     * что и сборка архива. Если архив запросит картинку раньше, он дождётся этой загрузки
+     * (блокировка по URL) или возьмёт готовые байты из кэша.
+     *
+     * Крупное изображение в кэш памяти не попадает: его временный файл откладывается за задачей,
+     * сборка архива забирает файл вместо повторной загрузки и удаляет невостребованные.
+     */
+    @Override
+    public void prefetchImage(String taskId, String imageUrl) {
+        if (imageUrl == null || imageUrl.isBlank()) {
+            return;
+        }
+        try {
+            prefetchSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Хранилище берётся до загрузки: если сборка архива успеет завершиться, оно уже закрыто
+        PrefetchedImages prefetched = taskId != null
+                ? prefetchedByTask.computeIfAbsent(taskId, this::newPrefetchedImages)
+                : null;
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                downloadSemaphore.acquire();
+                try {
+                    metricsService.incrementActiveDownloads();
+                    IImageDownloadService.DownloadedImage image = imageDownloadService.downloadImage(imageUrl, 3,
+                            imageRateLimitKey(taskId));
+                    if (image != null) {
+                        metricsService.recordImageDownload();
+                        if (!image.inMemory() && (prefetched == null || !prefetched.offer(imageUrl, image))) {
+                            // Забрать файл некому: временный файл сразу удаляется
+                            image.close();
+                        }
+                    }
+                } finally {
+                    downloadSemaphore.release();
+                    metricsService.decrementActiveDownloads();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Не критично: при сборке архива изображение будет скачано повторно
+                log.warn("⚠️ Предзагрузка {} не удалась: {}", imageUrl, e.getMessage());
+            } finally {
+                prefetchSlots.release();
+            }
+        }, virtualThreadExecutor);
+    }
+
+    /**
+     * Хранилище предзагрузки новой задачи. Если архив так и не начнут собирать,
+     * файлы удаляются через prefetch-ttl-minutes.
+     */
+    private PrefetchedImages newPrefetchedImages(String taskId) {
+        PrefetchedImages prefetched = new PrefetchedImages();
+        CompletableFuture.runAsync(() -> {
+            if (prefetched.closeIfUnclaimed() && prefetchedByTask.remove(taskId, prefetched)) {
+                log.info("🗑️ Файлы предзагрузки задачи {} не востребованы за {} мин, удалены", taskId, prefetchTtlMinutes);
+            }
+        }, CompletableFuture.delayedExecutor(prefetchTtlMinutes, TimeUnit.MINUTES));
+        return prefetched;
+    }
+
+    /**
+     * Отдаёт хранилище предзагрузки сборке архива; после этого срок хранения на него не действует.
+     */
+    private PrefetchedImages claimPrefetched(String taskId) {
+        PrefetchedImages prefetched = taskId != null ? prefetchedByTask.get(taskId) : null;
+        return prefetched != null && prefetched.claim() ? prefetched : null;
+    }
+
+    @Override
+    public void discardPrefetched(String taskId) {
+        PrefetchedImages prefetched = taskId != null ? prefetchedByTask.remove(taskId) : null;
+        if (prefetched != null) {
+            prefetched.close();
+        }
+    }
+
     @Override
     public void streamArchive(FigmaExportDto exportDto, OutputStream outputStream,
                               String taskId, ITaskService taskService, ArchiveSettings settings) throws IOException {
 
         Map<String, AtomicInteger> nameCounter = new HashMap<>();
+        boolean deduplicate = settings != null && settings.isDeduplicateImages();
+        String rateLimitKey = imageRateLimitKey(taskId);
         List<FigmaImageDto> images = exportDto.getImages() != null ? exportDto.getImages() : new ArrayList<>();
         AtomicInteger completed = new AtomicInteger(0);
         int total = images.size();
@@ -76,135 +192,265 @@ public class FigmaArchiveService implements IFigmaArchiveService, InitializingBe
             images = images.subList(0, maxImages);
         }
 
-        try (ZipOutputStream zip = zipArchiveService.createZipArchive(outputStream)) {
+        PrefetchedImages prefetched = claimPrefetched(taskId);
 
-            // 1. JSON метаданные
-            byte[] jsonData = JsonUtils.toJsonBytes(exportDto);
-            if (jsonData != null && jsonData.length > 0) {
-                zipArchiveService.addToZip(zip, "figma.json", jsonData);
-            } else {
-                log.warn("⚠️ JSON метаданные пустые, пропускаем");
-            }
+        try (ArchiveEntryWriter archive = openArchive(outputStream, settings)) {
+            // В архив пишет только текущий поток; загрузчики передают ему данные через стадию записи
+            ArchiveWriterStage writer = new ArchiveWriterStage(archive, metricsService,
+                    writeQueueSize, flushThresholdKb * 1024L);
 
-            // 2. Реестры - используем настройки из параметра settings (приоритет)
-            boolean useRegistry = settings != null ? settings.isIncludeRegistry() : defaultIncludeRegistry;
-            String[] formats = settings != null && settings.getRegistryFormats() != null ?
-                    settings.getRegistryFormats() : defaultRegistryFormats;
-
-            if (useRegistry && formats != null) {
-                for (String format : formats) {
-                    try {
-                        if (!registryService.isFormatSupported(format)) {
-                            log.warn("⚠️ Формат реестра не поддерживается: {}", format);
-                            continue;
-                        }
+            try {
+                // 1. JSON метаданные пишутся генератором прямо в запись архива
+                JsonUtils.JsonLayout jsonLayout = JsonUtils.JsonLayout.of(settings != null ? settings.getJsonLayout() : null);
+                writer.write("figma." + jsonLayout.extension(), out -> JsonUtils.writeExport(exportDto, out, jsonLayout));
 
-                        byte[] registryData = registryService.generateRegistry(exportDto, format);
-                        String fileName = registryService.getFileName(format);
+                // 2. Реестры - используем настройки из параметра settings (приоритет)
+                boolean useRegistry = settings != null ? settings.isIncludeRegistry() : defaultIncludeRegistry;
+                String[] formats = settings != null && settings.getRegistryFormats() != null ?
+                        settings.getRegistryFormats() : defaultRegistryFormats;
 
-                        if (registryData != null && registryData.length > 0) {
-                            zipArchiveService.addToZip(zip, fileName, registryData);
-                            log.info("📊 Реестр {} добавлен в архив ({} байт)",
-                                    fileName, registryData.length);
-                        } else {
-                            log.warn("⚠️ Реестр {} пустой, пропускаем", fileName);
-                        }
+                if (useRegistry && formats != null) {
+                    for (String format : formats) {
+                        try {
+                            if (!registryService.isFormatSupported(format)) {
+                                log.warn("⚠️ Формат реестра не поддерживается: {}", format);
+                                continue;
+                            }
 
-                    } catch (Exception e) {
-                        log.error("❌ Ошибка при создании реестра {}: {}", format, e.getMessage());
-                    }
-                }
-            }
+                            byte[] registryData = registryService.generateRegistry(exportDto, format);
+                            String fileName = registryService.getFileName(format);
 
-            if (images.isEmpty()) {
-                log.info("🚀 Нет картинок для загрузки");
-            } else {
-                log.info("🚀 Запускаем загрузку {} картинок: максимум {} параллельно, задержка {} мс",
-                        images.size(), maxConcurrentDownloads, delayBetweenRequests);
-                long startTime = System.currentTimeMillis();
+                            if (registryData != null && registryData.length > 0) {
+                                writer.write(fileName, registryData);
+                                log.info("📊 Реестр {} добавлен в архив ({} байт)",
+                                        fileName, registryData.length);
+                            } else {
+                                log.warn("⚠️ Реестр {} пустой, пропускаем", fileName);
+                            }
 
-                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                        } catch (Exception e) {
+                            log.error("❌ Ошибка при создании реестра {}: {}", format, e.getMessage());
+                        }
+                    }
+                }
 
-                // 3. Картинки (параллельная загрузка с ограничением через семафор)
+                // Узлы с одной и той же картинкой (общий imageRef → общий URL) скачиваются один раз,
+                // а байты пишутся в запись каждого узла. Имена записей строятся заранее, в порядке изображений.
+                Map<String, List<String>> entriesByUrl = new LinkedHashMap<>();
                 for (FigmaImageDto image : images) {
-                    CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                        try {
-                            // Получаем разрешение от семафора (ограничение параллельных загрузок)
-                            downloadSemaphore.acquire();
-                            
+                    if (image == null || image.getImageUrl() == null || image.getImageUrl().isBlank()) {
+                        log.warn("⚠️ Пропуск: некорректные данные изображения");
+                        continue;
+                    }
+                    entriesByUrl.computeIfAbsent(image.getImageUrl(), url -> new ArrayList<>())
+                            .add(imagePathService.buildEntryName(image, nameCounter));
+                }
+
+                if (entriesByUrl.isEmpty()) {
+                    log.info("🚀 Нет картинок для загрузки");
+                } else {
+                    log.info("🚀 Запускаем загрузку {} картинок ({} уникальных): максимум {} параллельно, задержка {} мс",
+                            images.size(), entriesByUrl.size(), maxConcurrentDownloads, delayBetweenRequests);
+                    long startTime = System.currentTimeMillis();
+
+                    List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+                    // 3. Картинки (параллельная загрузка с ограничением через семафор, запись — в порядке номеров)
+                    int sequence = 0;
+                    for (Map.Entry<String, List<String>> download : entriesByUrl.entrySet()) {
+                        int number = sequence++;
+                        String imageUrl = download.getKey();
+                        List<String> entryNames = download.getValue();
+                        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                            IImageDownloadService.DownloadedImage image = null;
+                            String blobName = null;
+                            try {
+                                // Загрузка начинается, только когда для результата есть место в окне записи
+                                writer.reserve(number);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                writer.abort(e);
+                                return;
+                            } catch (IOException e) {
+                                return;
+                            }
                             try {
-                                metricsService.incrementActiveDownloads();
+                                // Получаем разрешение от семафора (ограничение параллельных загрузок)
+                                downloadSemaphore.acquire();
 
-                                // Дополнительная задержка между стартами загрузок
-                                if (delayBetweenRequests > 0) {
-                                    Thread.sleep(delayBetweenRequests);
-                                }
+                                try {
+                                    metricsService.incrementActiveDownloads();
 
-                                if (image == null || image.getImageUrl() == null || image.getImageUrl().isBlank()) {
-                                    log.warn("⚠️ Пропуск: некорректные данные изображения");
-                                    return;
-                                }
+                                    // Крупное изображение, уже скачанное предзагрузкой, берётся из её временного файла
+                                    image = prefetched != null ? prefetched.take(imageUrl) : null;
+                                    if (image == null) {
+                                        // Дополнительная задержка между стартами загрузок
+                                        if (delayBetweenRequests > 0) {
+                                            Thread.sleep(delayBetweenRequests);
+                                        }
 
-                                String entryName = imagePathService.buildEntryName(image, nameCounter);
-                                byte[] imageData = imageDownloadService.downloadImageWithRetry(image.getImageUrl(), 3);
+                                        image = imageDownloadService.downloadImage(imageUrl, 3, rateLimitKey);
+                                    }
 
-                                if (imageData != null && imageData.length > 0) {
-                                    synchronized (zip) {
-                                        zipArchiveService.addToZip(zip, entryName, imageData);
+                                    if (image != null && image.size() > 0) {
+                                        // Хэш считается здесь, параллельно, чтобы не нагружать поток записи
+                                        if (deduplicate) {
+                                            blobName = imagePathService.buildBlobName(image.sha256());
+                                        }
+                                        metricsService.recordImageDownload();
+                                    } else {
+                                        log.warn("⚠️ Изображение {} пустое, пропускаем", imageUrl);
                                     }
-                                    metricsService.recordImageDownload();
-                                } else {
-                                    log.warn("⚠️ Изображение {} пустое, пропускаем", image.getImageUrl());
-                                }
 
-                                int current = completed.incrementAndGet();
+                                    int current = completed.addAndGet(entryNames.size());
 
-                                if (taskService != null && taskId != null) {
-                                    taskService.updateProgress(taskId, current, total, "DOWNLOADING");
-                                }
+                                    if (taskService != null && taskId != null) {
+                                        taskService.updateProgress(taskId, current, total, "DOWNLOADING");
+                                    }
 
-                                if (current % 100 == 0) {
-                                    log.info("📊 Прогресс: {}/{} картинок ({}%)",
-                                            current, total, (current * 100 / total));
+                                    if (current / 100 != (current - entryNames.size()) / 100) {
+                                        log.info("📊 Прогресс: {}/{} картинок ({}%)",
+                                                current, total, (current * 100 / total));
+                                    }
+                                } finally {
+                                    // Освобождаем семафор
+                                    downloadSemaphore.release();
+                                    metricsService.decrementActiveDownloads();
                                 }
+
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                log.error("❌ Поток прерван при загрузке изображения");
+                            } catch (Exception e) {
+                                log.error("❌ Ошибка в потоке для {}: {}",
+                                        imageUrl, e.getMessage() != null ? e.getMessage() : "null");
                             } finally {
-                                // Освобождаем семафор
-                                downloadSemaphore.release();
-                                metricsService.decrementActiveDownloads();
+                                // Номер передаётся всегда, иначе поток записи будет ждать его бесконечно
+                                writer.complete(number, entryNames, image, blobName);
                             }
+                        }, virtualThreadExecutor);
 
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            log.error("❌ Поток прерван при загрузке изображения");
-                        } catch (Exception e) {
-                            log.error("❌ Ошибка в потоке для {}: {}",
-                                    image != null ? image.getImageUrl() : "null",
-                                    e.getMessage() != null ? e.getMessage() : "null");
-                        }
-                    }, virtualThreadExecutor);
+                        futures.add(future);
+                    }
 
-                    futures.add(future);
-                }
+                    writer.drain(entriesByUrl.size());
 
-                // Ждем завершения всех потоков
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+                    // 4. Манифест дедупликации: какая запись узла ссылается на какое изображение
+                    if (deduplicate && !writer.getManifest().isEmpty()) {
+                        writer.write("manifest.json", JsonUtils.toJsonBytes(writer.getManifest()));
+                        log.info("🧬 Дедупликация: {} записей узлов ссылаются на {} уникальных изображений",
+                                writer.getManifest().size(), writer.getBlobCount());
+                    }
 
-                long duration = System.currentTimeMillis() - startTime;
-                double speed = images.size() * 1000.0 / duration;
-                log.info("✅ Картинки загружены за {} мс, {} картинок, средняя скорость: {:.2f} картинок/сек",
-                        duration, images.size(), speed);
-            }
+                    // Ждем завершения всех потоков
+                    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
 
-            zipArchiveService.finishZip(zip);
+                    long duration = System.currentTimeMillis() - startTime;
+                    double speed = images.size() * 1000.0 / duration;
+                    log.info("✅ Картинки загружены за {} мс, {} картинок, средняя скорость: {:.2f} картинок/сек",
+                            duration, images.size(), speed);
+                }
 
-            if (taskService != null && taskId != null) {
-                taskService.updateProgress(taskId, total, total, "COMPLETED");
+                archive.finish();
+
+                if (taskService != null && taskId != null) {
+                    taskService.updateProgress(taskId, total, total, "COMPLETED");
+                }
+            } catch (Exception e) {
+                // Загрузчики, ждущие места в окне, освобождаются, временные файлы готовых изображений удаляются
+                writer.abort(e);
+                throw e;
             }
 
         } catch (Exception e) {
             log.error("❌ Критическая ошибка создания архива", e);
             throw new IOException("Ошибка создания архива: " + e.getMessage(), e);
+        } finally {
+            // Невостребованные файлы предзагрузки удаляются, поздние результаты предзагрузки — тоже
+            if (prefetched != null && prefetchedByTask.remove(taskId, prefetched)) {
+                prefetched.close();
+            }
+        }
+    }
+
+    /**
+     * Загрузки изображений каждой задачи идут через собственный бакет rate limiter:
+     * большой архив или 429 одной задачи не замедляют загрузки других.
+     */
+    private static String imageRateLimitKey(String taskId) {
+        return IRateLimitService.IMAGE_KEY_PREFIX + (taskId != null ? taskId : "");
+    }
+
+    /**
+     * Открывает контейнер архива в формате из настроек задачи.
+     * Для tar.gz блоки сжимаются на общем ForkJoin-пуле, в очереди держится по два блока на ядро.
+     */
+    private ArchiveEntryWriter openArchive(OutputStream outputStream, ArchiveSettings settings) {
+        if (settings != null && settings.isTarGz()) {
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            log.info("🗜️ Формат tar.gz: блоки по {} КБ, сжатие на {} потоках", gzipBlockKb, parallelism);
+            return new TarGzEntryWriter(new BufferedOutputStream(outputStream), gzipBlockKb * 1024, deflateLevel,
+                    ForkJoinPool.commonPool(), 2 * parallelism);
         }
+        return new ZipEntryWriter(zipArchiveService.createZipArchive(outputStream), zipArchiveService, metricsService);
     }
 
+    /**
+     * Временные файлы крупных изображений, скачанных предзагрузкой одной задачи.
+     * После закрытия новые файлы не принимаются: вызывающий удаляет их сам.
+     */
+    private static final class PrefetchedImages {
+
+        private final Map<String, IImageDownloadService.DownloadedImage> images = new HashMap<>();
+        private boolean claimed;
+        private boolean closed;
+
+        /**
+         * Отмечает, что файлы забирает сборка архива.
+         *
+         * @return false, если хранилище уже закрыто
+         */
+        synchronized boolean claim() {
+            claimed = true;
+            return !closed;
+        }
+
+        /**
+         * Закрывает хранилище, если сборка архива его не забрала.
+         */
+        synchronized boolean closeIfUnclaimed() {
+            if (claimed || closed) {
+                return false;
+            }
+            close();
+            return true;
+        }
+
+        synchronized boolean offer(String imageUrl, IImageDownloadService.DownloadedImage image) {
+            if (closed || images.containsKey(imageUrl)) {
+                return false;
+            }
+            images.put(imageUrl, image);
+            return true;
+        }
+
+        /**
+         * Забирает файл изображения; дальше им владеет сборка архива.
+         */
+        synchronized IImageDownloadService.DownloadedImage take(String imageUrl) {
+            return images.remove(imageUrl);
+        }
+
+        synchronized void close() {
+            closed = true;
+            for (IImageDownloadService.DownloadedImage image : images.values()) {
+                try {
+                    image.close();
+                } catch (IOException e) {
+                    log.warn("⚠️ Не удалось удалить временный файл предзагрузки: {}", e.getMessage());
+                }
+            }
+            images.clear();
+        }
+    }
 }
\ No newline at end of file
@@ -2,21 +2,30 @@ package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.client.IFigmaClient;
 import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
-import com.company.figmaintegrationservice.client.dto.FigmaNodesResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
 import com.company.figmaintegrationservice.client.dto.PageNode;
 import com.company.figmaintegrationservice.config.ArchiveSettings;
 import com.company.figmaintegrationservice.dto.FigmaExportDto;
 import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaPageExportDto;
 import com.company.figmaintegrationservice.dto.FigmaTextDto;
 import com.company.figmaintegrationservice.service.IFigmaExportService;
 import com.company.figmaintegrationservice.service.impl.NodeTraversalService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -26,11 +35,33 @@ public class FigmaExportService implements IFigmaExportService {
     private final IFigmaClient figmaClient;
     private final NodeTraversalService nodeTraversalService;
 
+    /** Потоковое извлечение без построения дерева документа (документ при этом не кэшируется). */
+    @Value("${figma.export.streaming:false}")
+    private boolean streaming;
+
+    /** Параллельный обход страниц и фреймов верхнего уровня в ForkJoinPool.commonPool(). */
+    @Value("${figma.export.parallel-traversal:false}")
+    private boolean parallelTraversal;
+
     /**
      * Стандартная выгрузка всего файла
      */
     public FigmaExportDto exportFile(String token, String fileId) {
-        FigmaFileResponse fileResponse = figmaClient.getFile(token, fileId).block();
+        return exportFile(token, fileId, NodeFilter.ALL);
+    }
+
+    /**
+     * Выгрузка всего файла с фильтром узлов: отфильтрованные страницы не запрашиваются,
+     * отсечённые поддеревья не обходятся.
+     */
+    private FigmaExportDto exportFile(String token, String fileId, NodeFilter filter) {
+        if (streaming && !filter.needsNodes()) {
+            return exportFileStreaming(token, fileId, filter);
+        }
+
+        FigmaFileResponse fileResponse = (filter.filtersPages()
+                ? figmaClient.getFile(token, fileId, filter::acceptsPage)
+                : figmaClient.getFile(token, fileId)).block();
         if (fileResponse == null || fileResponse.getDocument() == null) {
             throw new RuntimeException("Figma document is empty");
         }
@@ -40,51 +71,209 @@ public class FigmaExportService implements IFigmaExportService {
         List<FigmaTextDto> texts = new ArrayList<>();
         List<FigmaImageDto> images = new ArrayList<>();
 
-        if (pages != null) {
+        if (parallelTraversal) {
+            nodeTraversalService.traversePagesParallel(pages, filter, ForkJoinPool.commonPool(), texts, images);
+        } else if (pages != null) {
             for (PageNode page : pages) {
-                if (page.getChildren() != null) {
-                    nodeTraversalService.traverseNodes(page.getChildren(), page.getName(), "", texts, images);
+                if (page.getChildren() != null && filter.acceptsPage(page)) {
+                    nodeTraversalService.traverseNodes(page.getChildren(), page.getName(), "", filter, texts, images);
                 }
             }
         }
 
+        resolveImageFills(token, fileId, images);
+
         log.info("✅ Экспорт завершен: {} текстов, {} изображений", texts.size(), images.size());
         return new FigmaExportDto(fileResponse.getVersion(), texts, images);
     }
 
+    /**
+     * Выгрузка всего файла в потоковом режиме: тексты и изображения приходят постранично
+     * прямо из разбора ответа, пиковая память ограничена глубиной дерева, а не размером файла.
+     * Из фильтра применяются только фильтр страниц и выбор текстов/изображений.
+     */
+    private FigmaExportDto exportFileStreaming(String token, String fileId, NodeFilter filter) {
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        String[] version = new String[1];
+
+        figmaClient.streamFile(token, fileId, filter::acceptsPage)
+                .doOnNext(page -> {
+                    version[0] = page.getVersion();
+                    if (filter.wantsTexts()) {
+                        texts.addAll(page.getTexts());
+                    }
+                    if (filter.wantsImages()) {
+                        images.addAll(page.getImages());
+                    }
+                })
+                .blockLast();
+
+        resolveImageFills(token, fileId, images);
+
+        log.info("✅ Потоковый экспорт завершен: {} текстов, {} изображений", texts.size(), images.size());
+        return new FigmaExportDto(version[0], texts, images);
+    }
+
+    /**
+     * Конвейерная выгрузка всего файла: каждая страница обрабатывается, как только пришёл её пакет,
+     * а URL её изображений сразу передаются слушателю (предзагрузке картинок).
+     * Скачивание изображений идёт параллельно с выгрузкой следующих страниц.
+     * Страницы читаются в вызывающем потоке, поэтому медленный слушатель притормаживает выгрузку
+     * через обратное давление, а не копит страницы в памяти.
+     *
+     * Из фильтра применяются только фильтр страниц и выбор текстов/изображений.
+     *
+     * @param imageListener получает каждый уникальный URL изображения один раз
+     */
+    private FigmaExportDto exportFilePipelined(String token, String fileId, NodeFilter filter,
+                                               Consumer<String> imageListener) {
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        Set<String> announced = new HashSet<>();
+        String version = null;
+
+        // Заливки картинками запрашиваются один раз, при первой странице с неразрешённым imageRef
+        Mono<Map<String, String>> imageFills = figmaClient.getImageFills(token, fileId)
+                .defaultIfEmpty(Map.of())
+                .cache();
+
+        for (FigmaPageExportDto page : figmaClient.streamFile(token, fileId, filter::acceptsPage).toIterable()) {
+            version = page.getVersion();
+            if (filter.wantsTexts()) {
+                texts.addAll(page.getTexts());
+            }
+
+            List<FigmaImageDto> pageImages = filter.wantsImages() ? page.getImages() : List.of();
+            if (hasUnresolvedFills(pageImages)) {
+                applyImageFills(pageImages, imageFills.block());
+            }
+            for (FigmaImageDto image : pageImages) {
+                String url = image.getImageUrl();
+                if (url != null && !url.isBlank() && announced.add(url)) {
+                    imageListener.accept(url);
+                }
+            }
+            images.addAll(pageImages);
+            log.debug("📄 Страница {} обработана: {} текстов, {} изображений",
+                    page.getPageName(), page.getTexts().size(), pageImages.size());
+        }
+
+        log.info("✅ Конвейерный экспорт завершен: {} текстов, {} изображений, {} отправлено на предзагрузку",
+                texts.size(), images.size(), announced.size());
+        return new FigmaExportDto(version, texts, images);
+    }
+
     /**
      * Выгрузка только выбранных узлов по ID
      */
     public FigmaExportDto exportSelectedNodes(String token, String fileId, String nodeIds, int depth) {
-        log.info("🎯 Выгрузка узлов: {} с глубиной {}", nodeIds, depth);
+        return exportSelectedNodes(token, fileId, nodeIds, depth, NodeFilter.ALL);
+    }
 
-        FigmaNodesResponse nodesResponse = figmaClient.getNodes(token, fileId, nodeIds, depth).block();
-        if (nodesResponse == null || nodesResponse.getNodes() == null) {
-            throw new RuntimeException("Figma nodes response is empty");
-        }
+    private FigmaExportDto exportSelectedNodes(String token, String fileId, String nodeIds, int depth,
+                                               NodeFilter filter) {
+        List<String> ids = parseNodeIds(nodeIds);
+        log.info("🎯 Выгрузка {} узлов с глубиной {}", ids.size(), depth);
 
         List<FigmaTextDto> texts = new ArrayList<>();
         List<FigmaImageDto> images = new ArrayList<>();
+        int loaded = 0;
 
-        for (Map.Entry<String, FigmaNodesResponse.NodeWrapper> entry : nodesResponse.getNodes().entrySet()) {
-            FigmaNodesResponse.NodeWrapper wrapper = entry.getValue();
-            if (wrapper != null && wrapper.getDocument() != null) {
-                nodeTraversalService.traverseNode(wrapper.getDocument(), "Selected", "", texts, images);
-            }
+        // Части загружаются параллельно (или берутся из кэшированного документа),
+        // а узлы обходятся по мере поступления с ограничением глубины запроса
+        for (FigmaNode node : figmaClient.getNodesChunked(token, fileId, ids, depth).toIterable()) {
+            nodeTraversalService.traverseNode(node, "Selected", "", filter, depth, texts, images);
+            loaded++;
+        }
+        if (loaded == 0) {
+            throw new RuntimeException("Figma nodes response is empty");
         }
 
+        resolveImageFills(token, fileId, images);
+
         log.info("✅ Выборочный экспорт завершен: {} текстов, {} изображений", texts.size(), images.size());
         return new FigmaExportDto("v1", texts, images);
     }
 
+    /**
+     * Разбирает список ID через запятую, убирая пробелы, пустые значения и повторы.
+     */
+    private static List<String> parseNodeIds(String nodeIds) {
+        if (nodeIds == null) {
+            return List.of();
+        }
+        Set<String> ids = new LinkedHashSet<>();
+        for (String id : nodeIds.split(",")) {
+            String trimmed = id.trim();
+            if (!trimmed.isEmpty()) {
+                ids.add(trimmed);
+            }
+        }
+        return List.copyOf(ids);
+    }
+
+    /**
+     * Проставляет URL изображениям с заливкой картинкой.
+     * Все imageRef файла разрешаются одним запросом /files/{key}/images вместо рендера каждого узла;
+     * узлы с одинаковым imageRef получают один и тот же URL и скачиваются один раз.
+     */
+    private void resolveImageFills(String token, String fileId, List<FigmaImageDto> images) {
+        if (!hasUnresolvedFills(images)) {
+            return;
+        }
+
+        Map<String, String> urls = figmaClient.getImageFills(token, fileId).block();
+        int resolved = applyImageFills(images, urls);
+        long unique = images.stream().map(FigmaImageDto::getImageRef).filter(Objects::nonNull).distinct().count();
+        log.info("🖼️ Заливки картинками: {} изображений разрешено, уникальных imageRef: {}", resolved, unique);
+    }
+
+    private static boolean hasUnresolvedFills(List<FigmaImageDto> images) {
+        return images.stream().anyMatch(image -> image.getImageUrl() == null && image.getImageRef() != null);
+    }
+
+    /**
+     * @return число изображений, получивших URL
+     */
+    private static int applyImageFills(List<FigmaImageDto> images, Map<String, String> urls) {
+        if (urls == null || urls.isEmpty()) {
+            return 0;
+        }
+        int resolved = 0;
+        for (FigmaImageDto image : images) {
+            if (image.getImageUrl() == null && image.getImageRef() != null) {
+                String url = urls.get(image.getImageRef());
+                if (url != null) {
+                    image.setImageUrl(url);
+                    resolved++;
+                }
+            }
+        }
+        return resolved;
+    }
+
     /**
      * Универсальный метод экспорта с учётом настроек
      */
     public FigmaExportDto exportWithSettings(String token, String fileId, ArchiveSettings settings) {
+        return exportWithSettings(token, fileId, settings, null);
+    }
+
+    /**
+     * Экспорт с учётом настроек; в конвейерном режиме URL изображений передаются слушателю по мере выгрузки.
+     * Настройки фильтрации компилируются в {@link NodeFilter} один раз на задачу. Если фильтру нужны
+     * свойства отдельных узлов (скрытость, типы, имена фреймов), конвейерный режим заменяется обычным.
+     */
+    public FigmaExportDto exportWithSettings(String token, String fileId, ArchiveSettings settings,
+                                             Consumer<String> imageListener) {
+        NodeFilter filter = NodeFilter.compile(settings);
         if (settings != null && settings.isSelectedMode()) {
-            return exportSelectedNodes(token, fileId, settings.getNodeIds(), settings.getNodeDepth());
+            return exportSelectedNodes(token, fileId, settings.getNodeIds(), settings.getNodeDepth(), filter);
+        } else if (settings != null && settings.isPipelined() && imageListener != null && !filter.needsNodes()) {
+            return exportFilePipelined(token, fileId, filter, imageListener);
         } else {
-            return exportFile(token, fileId);
+            return exportFile(token, fileId, filter);
         }
     }
 
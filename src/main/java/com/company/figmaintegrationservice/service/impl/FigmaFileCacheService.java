@@ -2,18 +2,44 @@ package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
 import com.company.figmaintegrationservice.service.IFigmaFileCacheService;
+import com.company.figmaintegrationservice.service.IMetricsService;
+import com.company.figmaintegrationservice.utils.NodeIdIndex;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Сервис для кэширования реактивных Mono с использованием Spring Cache.
  * Обеспечивает правильную работу кэша с реактивными типами.
+ *
+ * Вместе с документом хранится его версия. По истечении revalidate-after-minutes
+ * запись не выбрасывается, а перепроверяется запросом версии (depth=1):
+ * совпала — дерево остаётся в кэше, иначе документ загружается заново.
+ *
+ * Загрузка и перепроверка выполняются в одном экземпляре на ключ (single-flight):
+ * одновременные вызовы по одному файлу подписываются на уже идущую загрузку.
+ * Загрузка идёт с токеном инициатора, поэтому присоединившимся передаётся только успех:
+ * ошибку доступа или 429 чужого токена присоединившийся не получает, а загружает файл сам.
+ * Ошибка не кэшируется — следующий вызов начнёт загрузку заново.
+ *
+ * Вторым уровнем служит дисковый {@link FigmaSnapshotStore}: после перезапуска
+ * документ берётся с диска и, как обычная запись, перепроверяется по версии.
  */
 @Slf4j
 @Service
@@ -22,41 +48,212 @@ public class FigmaFileCacheService implements IFigmaFileCacheService {
 
     private static final String CACHE_NAME = "figmaFiles";
     private final CacheManager cacheManager;
+    private final IMetricsService metricsService;
+    private final FigmaSnapshotStore snapshotStore;
+
+    /** Идущие загрузки по ключу; запись удаляется при завершении загрузки. */
+    private final Map<String, Mono<FigmaFileResponse>> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${figma.cache.revalidate-after-minutes:10}")
+    private long revalidateAfterMinutes;
 
     /**
      * Получает значение из кэша или вычисляет его, если отсутствует.
-     * 
+     * Устаревшая запись без проверки версии вычисляется заново.
+     *
      * @param key ключ кэша
      * @param supplier функция для вычисления значения, если его нет в кэше
      * @return Mono с результатом из кэша или вычисленным значением
      */
     @Override
     public Mono<FigmaFileResponse> getOrCompute(String key, Callable<Mono<FigmaFileResponse>> supplier) {
+        return getOrCompute(key, null, supplier);
+    }
+
+    @Override
+    public Mono<FigmaFileResponse> getOrCompute(String key, Callable<Mono<String>> versionSupplier,
+                                                Callable<Mono<FigmaFileResponse>> supplier) {
         Cache cache = cacheManager.getCache(CACHE_NAME);
         if (cache == null) {
             log.warn("Кэш {} не найден, пропускаем кэширование", CACHE_NAME);
-            try {
-                return supplier.call();
-            } catch (Exception e) {
-                return Mono.error(e);
-            }
+            return call(supplier);
         }
 
-        Cache.ValueWrapper wrapper = cache.get(key);
-        if (wrapper != null && wrapper.get() != null) {
+        CachedFigmaFile cached = cache.get(key, CachedFigmaFile.class);
+        if (cached != null && cached.isFresh(Duration.ofMinutes(revalidateAfterMinutes), Instant.now())) {
             log.debug("✅ Найдено в кэше: {}", key);
-            return Mono.just((FigmaFileResponse) wrapper.get());
+            return Mono.just(cached.getDocument());
         }
 
-        log.debug("📤 Значение отсутствует в кэше, вычисляем: {}", key);
-        try {
-            return supplier.call()
-                    .doOnNext(value -> {
-                        if (value != null) {
-                            cache.put(key, value);
-                            log.debug("💾 Сохранено в кэш: {}", key);
+        return singleFlight(key, () -> load(cache, key, versionSupplier, supplier));
+    }
+
+    @Override
+    public Mono<FigmaFileResponse> getIfCurrent(String key, Callable<Mono<String>> versionSupplier) {
+        return currentEntry(key, versionSupplier).map(CachedFigmaFile::getDocument);
+    }
+
+    @Override
+    public Mono<NodeIdIndex> getNodeIndexIfCurrent(String key, Callable<Mono<String>> versionSupplier) {
+        return currentEntry(key, versionSupplier).map(CachedFigmaFile::nodeIndex);
+    }
+
+    /**
+     * Актуальная запись: свежая или с подтверждённой версией (тогда она продлевается).
+     */
+    private Mono<CachedFigmaFile> currentEntry(String key, Callable<Mono<String>> versionSupplier) {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache == null) {
+            return Mono.empty();
+        }
+
+        return Mono.justOrEmpty(cache.get(key, CachedFigmaFile.class))
+                .switchIfEmpty(Mono.defer(() -> readSnapshot(cache, key)))
+                .flatMap(cached -> {
+                    if (cached.isFresh(Duration.ofMinutes(revalidateAfterMinutes), Instant.now())) {
+                        return Mono.just(cached);
+                    }
+                    return call(versionSupplier)
+                            .filter(cached::matches)
+                            .map(version -> {
+                                CachedFigmaFile revalidated = cached.revalidated(Instant.now());
+                                cache.put(key, revalidated);
+                                log.debug("♻️ Версия {} не изменилась, запись продлена: {}", version, key);
+                                return revalidated;
+                            })
+                            .onErrorResume(e -> {
+                                log.warn("⚠️ Не удалось проверить версию {}: {}", key, e.getMessage());
+                                return Mono.empty();
+                            });
+                });
+    }
+
+    /**
+     * Возвращает идущую загрузку по ключу или запускает новую.
+     * Если чужая загрузка завершилась ошибкой, зависящей от токена (401, 403, 429),
+     * присоединившийся повторяет загрузку своим загрузчиком.
+     */
+    private Mono<FigmaFileResponse> singleFlight(String key, Supplier<Mono<FigmaFileResponse>> loader) {
+        AtomicBoolean originated = new AtomicBoolean();
+        Mono<FigmaFileResponse> shared = inFlight.computeIfAbsent(key, k -> {
+            originated.set(true);
+            AtomicReference<Mono<FigmaFileResponse>> self = new AtomicReference<>();
+            self.set(Mono.defer(loader)
+                    .doFinally(signal -> inFlight.remove(k, self.get()))
+                    .cache());
+            return self.get();
+        });
+
+        if (originated.get()) {
+            metricsService.recordFileLoadOriginated();
+        } else {
+            metricsService.recordFileLoadCoalesced();
+            log.debug("🔗 Присоединяемся к идущей загрузке: {}", key);
+            return shared.onErrorResume(FigmaFileCacheService::isCallerSpecific, e -> {
+                log.info("🔁 Загрузка {} чужим токеном завершилась {}, загружаем своим", key, e.getMessage());
+                return Mono.defer(loader);
+            });
+        }
+        return shared;
+    }
+
+    /**
+     * Ошибка относится к токену вызывающего, а не к файлу: нет доступа или исчерпан лимит запросов.
+     */
+    private static boolean isCallerSpecific(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return status == 401 || status == 403 || status == 429;
+        }
+        return false;
+    }
+
+    private Mono<FigmaFileResponse> load(Cache cache, String key, Callable<Mono<String>> versionSupplier,
+                                         Callable<Mono<FigmaFileResponse>> supplier) {
+        // Пока ждали, запись могла обновить предыдущая загрузка
+        return Mono.justOrEmpty(cache.get(key, CachedFigmaFile.class))
+                .switchIfEmpty(Mono.defer(() -> readSnapshot(cache, key)))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(cached -> {
+                    if (cached.isEmpty()) {
+                        log.debug("📤 Значение отсутствует в кэше, вычисляем: {}", key);
+                        return compute(cache, key, supplier);
+                    }
+                    return revalidate(cache, key, cached.get(), versionSupplier, supplier);
+                });
+    }
+
+    /**
+     * Поднимает снимок с диска в кэш памяти, сохраняя момент последней проверки версии.
+     */
+    private Mono<CachedFigmaFile> readSnapshot(Cache cache, String key) {
+        if (!snapshotStore.isEnabled()) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> snapshotStore.read(key))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(Mono::justOrEmpty)
+                .map(snapshot -> {
+                    CachedFigmaFile cached = new CachedFigmaFile(snapshot.getVersion(), snapshot.getDocument(),
+                            Instant.ofEpochMilli(snapshot.getValidatedAtMillis()));
+                    cache.put(key, cached);
+                    log.info("💽 Документ {} версии {} восстановлен с диска", key, snapshot.getVersion());
+                    return cached;
+                });
+    }
+
+    private Mono<FigmaFileResponse> revalidate(Cache cache, String key, CachedFigmaFile cached,
+                                               Callable<Mono<String>> versionSupplier,
+                                               Callable<Mono<FigmaFileResponse>> supplier) {
+        if (cached.isFresh(Duration.ofMinutes(revalidateAfterMinutes), Instant.now())) {
+            return Mono.just(cached.getDocument());
+        }
+
+        if (versionSupplier == null) {
+            log.debug("⌛ Запись устарела, вычисляем: {}", key);
+            return compute(cache, key, supplier);
+        }
+
+        return call(versionSupplier)
+                .map(version -> {
+                    if (cached.matches(version)) {
+                        cache.put(key, cached.revalidated(Instant.now()));
+                        log.debug("♻️ Версия {} не изменилась, запись продлена: {}", version, key);
+                        return true;
+                    }
+                    log.info("🔄 Версия файла {} изменилась: {} → {}", key, cached.getVersion(), version);
+                    return false;
+                })
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    // Запись не продлевается: при следующем обращении версия будет проверена снова
+                    log.warn("⚠️ Не удалось проверить версию {}, используем кэш версии {}: {}",
+                            key, cached.getVersion(), e.getMessage());
+                    return Mono.just(true);
+                })
+                .flatMap(unchanged -> unchanged
+                        ? Mono.just(cached.getDocument())
+                        : compute(cache, key, supplier));
+    }
+
+    private Mono<FigmaFileResponse> compute(Cache cache, String key, Callable<Mono<FigmaFileResponse>> supplier) {
+        return call(supplier)
+                .doOnNext(value -> {
+                    if (value != null) {
+                        Instant now = Instant.now();
+                        cache.put(key, new CachedFigmaFile(value.getVersion(), value, now));
+                        log.debug("💾 Сохранено в кэш: {} (версия {})", key, value.getVersion());
+                        if (snapshotStore.isEnabled()) {
+                            Schedulers.boundedElastic().schedule(() -> snapshotStore.write(key, value, now));
                         }
-                    });
+                    }
+                });
+    }
+
+    private static <T> Mono<T> call(Callable<Mono<T>> supplier) {
+        try {
+            return supplier.call();
         } catch (Exception e) {
             return Mono.error(e);
         }
@@ -72,6 +269,7 @@ public class FigmaFileCacheService implements IFigmaFileCacheService {
             cache.evict(key);
             log.debug("🗑️ Удалено из кэша: {}", key);
         }
+        snapshotStore.delete(key);
     }
 
     /**
@@ -84,5 +282,6 @@ public class FigmaFileCacheService implements IFigmaFileCacheService {
             cache.clear();
             log.debug("🗑️ Кэш полностью очищен");
         }
+        snapshotStore.deleteAll();
     }
 }
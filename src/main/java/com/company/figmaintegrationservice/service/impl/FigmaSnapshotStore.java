@@ -0,0 +1,287 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Дисковый кэш снимков документов Figma — второй уровень под кэшем figmaFiles.
+ *
+ * Снимок хранится в бинарном формате Smile в файле, имя которого кодирует fileKey и версию.
+ * Чтение идёт через отображение файла в память. Общий размер каталога ограничен:
+ * при превышении удаляются давно не читавшиеся снимки (LRU по времени изменения файла,
+ * поэтому порядок переживает перезапуск).
+ */
+@Slf4j
+@Service
+public class FigmaSnapshotStore implements InitializingBean {
+
+    private static final String EXTENSION = ".smile";
+    private static final String TEMP_PREFIX = "snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Base64.Encoder NAME_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder NAME_DECODER = Base64.getUrlDecoder();
+
+    private final ObjectMapper smileMapper = SmileMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    @Value("${figma.cache.disk.enabled:false}")
+    private boolean enabled;
+
+    @Value("${figma.cache.disk.directory:${java.io.tmpdir}/figma-snapshots}")
+    private String directoryPath;
+
+    @Value("${figma.cache.disk.max-size-mb:2048}")
+    private long maxSizeMb;
+
+    /** Снимок на каждый fileKey; порядок обхода — от давно не читавшихся к недавним. */
+    private final LinkedHashMap<String, SnapshotFile> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private Path directory;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = Path.of(directoryPath);
+        Files.createDirectories(directory);
+
+        List<Path> files;
+        List<Path> leftovers;
+        try (Stream<Path> stream = Files.list(directory)) {
+            List<Path> all = stream.toList();
+            files = all.stream()
+                    .filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                    .sorted(Comparator.comparing(FigmaSnapshotStore::lastModified))
+                    .toList();
+            leftovers = all.stream().filter(FigmaSnapshotStore::isTempFile).toList();
+        }
+        // Временные файлы записей, прерванных падением процесса, никто не переименует и не удалит
+        leftovers.forEach(FigmaSnapshotStore::deleteQuietly);
+
+        synchronized (index) {
+            for (Path path : files) {
+                String fileKey = parseFileKey(path);
+                if (fileKey == null) {
+                    continue;
+                }
+                // Более новая версия того же файла вытесняет старую
+                register(fileKey, path, Files.size(path));
+            }
+            evictIfNeeded();
+        }
+        log.info("💽 Дисковый кэш снимков: {} файлов, {} МБ в {}", index.size(), totalBytes / (1024 * 1024), directory);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Читает последний сохранённый снимок файла.
+     */
+    public Optional<FigmaFileSnapshot> read(String fileKey) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        SnapshotFile file;
+        synchronized (index) {
+            file = index.get(fileKey);
+        }
+        if (file == null) {
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            FigmaFileSnapshot snapshot = smileMapper.readValue(new ByteBufferBackedInputStream(buffer), FigmaFileSnapshot.class);
+            Files.setLastModifiedTime(file.path(), FileTime.from(Instant.now()));
+            log.debug("💽 Снимок {} версии {} прочитан с диска ({} байт)", fileKey, snapshot.getVersion(), file.size());
+            return Optional.of(snapshot);
+        } catch (IOException e) {
+            log.warn("⚠️ Не удалось прочитать снимок {}: {}", file.path(), e.getMessage());
+            deleteIfCurrent(fileKey, file);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Сохраняет снимок документа. Запись идёт во временный файл с последующим атомарным переименованием.
+     */
+    public void write(String fileKey, FigmaFileResponse document, Instant validatedAt) {
+        if (!enabled || document == null || document.getVersion() == null) {
+            return;
+        }
+        Path target = directory.resolve(fileName(fileKey, document.getVersion()));
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, TEMP_PREFIX, TEMP_SUFFIX);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                smileMapper.writeValue(out, new FigmaFileSnapshot(document.getVersion(), validatedAt.toEpochMilli(), document));
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(target);
+
+            synchronized (index) {
+                register(fileKey, target, size);
+                evictIfNeeded();
+            }
+            log.debug("💽 Снимок {} версии {} сохранён ({} байт)", fileKey, document.getVersion(), size);
+        } catch (IOException e) {
+            log.warn("⚠️ Не удалось сохранить снимок {}: {}", fileKey, e.getMessage());
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    public void delete(String fileKey) {
+        synchronized (index) {
+            SnapshotFile removed = index.remove(fileKey);
+            if (removed != null) {
+                totalBytes -= removed.size();
+                deleteQuietly(removed.path());
+            }
+        }
+    }
+
+    /**
+     * Удаляет снимок, только если он всё ещё текущий: пока файл читался без блокировки,
+     * его могла заменить более новая запись, которую удалять нельзя.
+     */
+    private void deleteIfCurrent(String fileKey, SnapshotFile expected) {
+        synchronized (index) {
+            if (index.get(fileKey) == expected) {
+                index.remove(fileKey);
+                totalBytes -= expected.size();
+                deleteQuietly(expected.path());
+            }
+        }
+    }
+
+    public void deleteAll() {
+        synchronized (index) {
+            for (SnapshotFile file : index.values()) {
+                deleteQuietly(file.path());
+            }
+            index.clear();
+            totalBytes = 0;
+        }
+    }
+
+    private void register(String fileKey, Path path, long size) {
+        SnapshotFile previous = index.put(fileKey, new SnapshotFile(path, size));
+        totalBytes += size;
+        if (previous != null) {
+            totalBytes -= previous.size();
+            if (!previous.path().equals(path)) {
+                deleteQuietly(previous.path());
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        long maxBytes = maxSizeMb * 1024 * 1024;
+        Iterator<Map.Entry<String, SnapshotFile>> it = index.entrySet().iterator();
+        // Последний снимок не вытесняется, даже если он один больше лимита
+        while (totalBytes > maxBytes && index.size() > 1 && it.hasNext()) {
+            Map.Entry<String, SnapshotFile> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue().size();
+            deleteQuietly(eldest.getValue().path());
+            log.debug("🗑️ Снимок {} вытеснен с диска", eldest.getKey());
+        }
+    }
+
+    private static String fileName(String fileKey, String version) {
+        return encode(fileKey) + "." + encode(version) + EXTENSION;
+    }
+
+    private static String parseFileKey(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            return new String(NAME_DECODER.decode(name.substring(0, dot)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String encode(String value) {
+        return NAME_ENCODER.encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isTempFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("⚠️ Не удалось удалить {}: {}", path, e.getMessage());
+        }
+    }
+
+    private record SnapshotFile(Path path, long size) {
+    }
+
+    /**
+     * Содержимое файла снимка.
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FigmaFileSnapshot {
+        private String version;
+        /** Момент последней проверки версии, мс от эпохи. */
+        private long validatedAtMillis;
+        private FigmaFileResponse document;
+    }
+}
@@ -2,18 +2,29 @@ package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.service.IImageDownloadService;
 import com.company.figmaintegrationservice.service.IRateLimitService;
+import com.company.figmaintegrationservice.utils.HttpUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
  * Сервис для загрузки изображений из URL.
@@ -26,6 +37,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ImageDownloadService implements IImageDownloadService {
 
     private final IRateLimitService rateLimitService;
+    private final CloseableHttpClient httpClient;
 
     @Value("${figma.archive.image-timeout-seconds:30}")
     private int imageTimeoutSeconds;
@@ -36,8 +48,11 @@ public class ImageDownloadService implements IImageDownloadService {
     @Value("${figma.archive.min-delay-between-downloads-ms:300}")
     private int minDelayBetweenDownloadsMs;
 
+    @Value("${figma.archive.spill-threshold-kb:512}")
+    private int spillThresholdKb;
+
     // Кэш для уже загруженных изображений
-    private final Map<String, byte[]> imageCache = new ConcurrentHashMap<>();
+    private final Map<String, DownloadedImage> imageCache = new ConcurrentHashMap<>();
     
     // Синхронизация загрузок одинаковых URL - только один поток загружает, остальные ждут
     private final Map<String, Object> urlLocks = new ConcurrentHashMap<>();
@@ -51,13 +66,26 @@ public class ImageDownloadService implements IImageDownloadService {
      * @return массив байтов изображения или null, если не удалось скачать
      */
     @Override
-    public byte[] downloadImageWithRetry(String imageUrl, int maxRetries) throws IOException, InterruptedException {
+    public byte[] downloadImageWithRetry(String imageUrl, int maxRetries, String rateLimitKey)
+            throws IOException, InterruptedException {
+        DownloadedImage image = downloadImage(imageUrl, maxRetries, rateLimitKey);
+        if (image == null) {
+            return null;
+        }
+        try (image) {
+            return image.readAllBytes();
+        }
+    }
+
+    @Override
+    public DownloadedImage downloadImage(String imageUrl, int maxRetries, String rateLimitKey)
+            throws IOException, InterruptedException {
         if (imageUrl == null || imageUrl.isBlank()) {
             throw new IOException("URL изображения пустой");
         }
 
         // Проверяем кэш
-        byte[] cached = imageCache.get(imageUrl);
+        DownloadedImage cached = imageCache.get(imageUrl);
         if (cached != null) {
             log.debug("✅ Изображение найдено в кэше: {}", imageUrl);
             return cached;
@@ -75,19 +103,17 @@ public class ImageDownloadService implements IImageDownloadService {
                     return cached;
                 }
 
-                // Получаем разрешение от rate limiter перед загрузкой
-                rateLimitService.acquire();
-                
                 // Дополнительная задержка для гарантированного соблюдения лимитов
                 if (minDelayBetweenDownloadsMs > 0) {
                     Thread.sleep(minDelayBetweenDownloadsMs);
                 }
                 
                 // Загружаем изображение
-                byte[] result = downloadImageWithRetryInternal(imageUrl, maxRetries);
+                DownloadedImage result = downloadImageWithRetryInternal(imageUrl, maxRetries, rateLimitKey);
                 
-                if (result != null && result.length > 0) {
-                    // Сохраняем в кэш только успешно загруженные изображения
+                if (result != null && result.inMemory()) {
+                    // Сохраняем в кэш только успешно загруженные изображения, уместившиеся в памяти;
+                    // временный файл крупного изображения принадлежит вызывающему и удаляется после записи
                     imageCache.put(imageUrl, result);
                     log.debug("✅ Изображение загружено и сохранено в кэш: {}", imageUrl);
                 }
@@ -103,18 +129,22 @@ public class ImageDownloadService implements IImageDownloadService {
     /**
      * Внутренний метод для загрузки изображения с повторными попытками.
      */
-    private byte[] downloadImageWithRetryInternal(String imageUrl, int maxRetries) {
+    private DownloadedImage downloadImageWithRetryInternal(String imageUrl, int maxRetries, String rateLimitKey)
+            throws InterruptedException {
         int attempt = 0;
         Exception lastException = null;
 
         while (attempt < maxRetries) {
             try {
-                byte[] data = downloadImageToBytes(imageUrl);
-                if (data != null && data.length > 0) {
+                // Разрешение берётся на каждую попытку, чтобы повтор после 429 выдержал паузу Retry-After
+                rateLimitService.acquire(rateLimitKey);
+
+                DownloadedImage image = downloadImageBody(imageUrl, rateLimitKey);
+                if (image != null && image.size() > 0) {
                     if (attempt > 0) {
                         log.info("✅ Удалось скачать после {} попыток: {}", attempt, imageUrl);
                     }
-                    return data;
+                    return image;
                 } else {
                     throw new IOException("Получены пустые данные");
                 }
@@ -142,70 +172,116 @@ public class ImageDownloadService implements IImageDownloadService {
     }
 
     /**
-     * Скачивает изображение в массив байтов.
+     * Скачивает изображение через общий пул соединений, попутно считая CRC32.
+     * Тело читается до конца внутри обработчика ответа, поэтому соединение возвращается в пул, а не закрывается.
      */
-    private byte[] downloadImageToBytes(String imageUrl) throws IOException {
-        HttpURLConnection conn = null;
+    private DownloadedImage downloadImageBody(String imageUrl, String rateLimitKey) throws IOException {
         try {
-            URL url = new URL(imageUrl);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(imageTimeoutSeconds * 1000);
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
-            conn.setRequestProperty("Accept", "image/webp,image/apng,image/*,*/*;q=0.8");
-            conn.setRequestProperty("Accept-Language", "ru-RU,ru;q=0.9,en;q=0.8");
-            conn.setRequestProperty("Connection", "keep-alive");
-
-            int responseCode = conn.getResponseCode();
-
-            if (responseCode == 429) {
-                String retryAfter = conn.getHeaderField("Retry-After");
-                throw new IOException("Rate limit exceeded. Retry after: " + retryAfter);
-            }
+            HttpGet request = new HttpGet(imageUrl);
+            request.setConfig(RequestConfig.custom()
+                    .setResponseTimeout(Timeout.ofSeconds(imageTimeoutSeconds))
+                    .build());
+            request.setHeader(HttpHeaders.USER_AGENT, "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
+            request.setHeader(HttpHeaders.ACCEPT, "image/webp,image/apng,image/*,*/*;q=0.8");
+            request.setHeader(HttpHeaders.ACCEPT_LANGUAGE, "ru-RU,ru;q=0.9,en;q=0.8");
 
-            if (responseCode == 403) {
-                throw new IOException("Доступ запрещен (403) для URL: " + imageUrl);
-            }
+            return httpClient.execute(request, response -> {
+                int responseCode = response.getCode();
 
-            if (responseCode == 404) {
-                throw new IOException("Изображение не найдено (404) для URL: " + imageUrl);
-            }
+                if (responseCode == 429) {
+                    Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                    String retryAfterValue = retryAfter != null ? retryAfter.getValue() : null;
+                    rateLimitService.onRateLimited(rateLimitKey, HttpUtils.parseRetryAfter(retryAfterValue));
+                    throw new IOException("Rate limit exceeded. Retry after: " + retryAfterValue);
+                }
 
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try (InputStream in = conn.getInputStream()) {
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    int totalBytes = 0;
-                    int maxBytes = maxImageSizeMb * 1024 * 1024;
-
-                    while ((bytesRead = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, bytesRead);
-                        totalBytes += bytesRead;
-                        if (totalBytes > maxBytes) {
-                            throw new IOException("Изображение слишком большое (>" + maxImageSizeMb + " МБ)");
-                        }
-                    }
+                if (responseCode == 403) {
+                    throw new IOException("Доступ запрещен (403) для URL: " + imageUrl);
+                }
 
-                    byte[] result = out.toByteArray();
+                if (responseCode == 404) {
+                    throw new IOException("Изображение не найдено (404) для URL: " + imageUrl);
+                }
 
-                    if (result == null || result.length == 0) {
-                        throw new IOException("Скачан пустой файл");
-                    }
+                if (responseCode != HttpStatus.SC_OK || response.getEntity() == null) {
+                    throw new IOException("HTTP " + responseCode + " for URL: " + imageUrl);
+                }
 
-                    log.debug("✅ Скачано {} байт с {}", result.length, imageUrl);
+                HttpEntity entity = response.getEntity();
+                try (InputStream in = entity.getContent()) {
+                    DownloadedImage result = readBody(in, entity.getContentLength());
+
+                    rateLimitService.onSuccess(rateLimitKey);
+                    log.debug("✅ Скачано {} байт с {}{}", result.size(), imageUrl,
+                            result.inMemory() ? "" : " (во временный файл)");
                     return result;
                 }
-            } else {
-                throw new IOException("HTTP " + responseCode + " for URL: " + imageUrl);
-            }
+            });
         } catch (Exception e) {
             log.error("❌ Ошибка скачивания {}: {}", imageUrl, e.getMessage());
             throw new IOException("Не удалось скачать: " + imageUrl, e);
+        }
+    }
+
+    /**
+     * Читает тело ответа буфером фиксированного размера. Пока объём не превысил порог, байты копятся в памяти
+     * (при известной длине — сразу в массив нужного размера), после порога всё тело переносится во временный файл.
+     */
+    private DownloadedImage readBody(InputStream in, long contentLength) throws IOException {
+        long maxBytes = maxImageSizeMb * 1024L * 1024L;
+        int threshold = spillThresholdKb * 1024;
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        byte[] memory = new byte[contentLength > 0 && contentLength <= threshold
+                ? (int) contentLength : Math.min(threshold, buffer.length)];
+        int inMemory = 0;
+        long totalBytes = 0;
+        Path file = null;
+        OutputStream out = null;
+        boolean completed = false;
+
+        try {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                totalBytes += bytesRead;
+                if (totalBytes > maxBytes) {
+                    throw new IOException("Изображение слишком большое (>" + maxImageSizeMb + " МБ)");
+                }
+                crc.update(buffer, 0, bytesRead);
+
+                if (out == null && totalBytes <= threshold) {
+                    if (inMemory + bytesRead > memory.length) {
+                        memory = Arrays.copyOf(memory, Math.min(threshold, Math.max(memory.length * 2, inMemory + bytesRead)));
+                    }
+                    System.arraycopy(buffer, 0, memory, inMemory, bytesRead);
+                    inMemory += bytesRead;
+                    continue;
+                }
+
+                if (out == null) {
+                    file = Files.createTempFile("figma-image-", ".bin");
+                    out = Files.newOutputStream(file);
+                    out.write(memory, 0, inMemory);
+                    memory = null;
+                }
+                out.write(buffer, 0, bytesRead);
+            }
+
+            if (totalBytes == 0) {
+                throw new IOException("Скачан пустой файл");
+            }
+
+            completed = true;
+            if (out != null) {
+                return new DownloadedImage(null, file, totalBytes, crc.getValue());
+            }
+            return new DownloadedImage(inMemory == memory.length ? memory : Arrays.copyOf(memory, inMemory), crc.getValue());
         } finally {
-            if (conn != null) {
-                conn.disconnect();
+            if (out != null) {
+                out.close();
+            }
+            if (!completed && file != null) {
+                Files.deleteIfExists(file);
             }
         }
     }
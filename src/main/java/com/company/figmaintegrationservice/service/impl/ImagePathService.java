@@ -30,6 +30,13 @@ public class ImagePathService {
         return count == 1 ? key + extension : key + "_" + count + extension;
     }
 
+    /**
+     * Имя записи для изображения, хранимого один раз по хэшу содержимого.
+     */
+    public String buildBlobName(String contentHash) {
+        return "blobs/" + contentHash + ".png";
+    }
+
     /**
      * Строит путь к папке на основе иерархии страница/фрейм.
      */
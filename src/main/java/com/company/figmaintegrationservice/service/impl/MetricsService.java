@@ -2,13 +2,17 @@ package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.service.IMetricsService;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 
 @Slf4j
 @Service
@@ -20,6 +24,14 @@ public class MetricsService implements IMetricsService {
     private final Counter archiveSuccessCounter;
     private final Counter archiveFailureCounter;
     private final AtomicLong activeDownloads;
+    private final Counter fileLoadOriginatedCounter;
+    private final Counter fileLoadCoalescedCounter;
+    private final AtomicLong zipQueueDepth;
+    private final Timer zipWriterStallTimer;
+    private final Counter zipStoredBytesCounter;
+    private final Counter zipDeflatedInputBytesCounter;
+    private final Counter zipDeflatedOutputBytesCounter;
+    private final DistributionSummary zipDeflateRatio;
 
     public MetricsService(MeterRegistry meterRegistry) {
         this.meterRegistry = meterRegistry;
@@ -42,6 +54,42 @@ public class MetricsService implements IMetricsService {
 
         this.activeDownloads = meterRegistry.gauge("figma.active.downloads", new AtomicLong(0),
                 AtomicLong::doubleValue);
+
+        this.fileLoadOriginatedCounter = Counter.builder("figma.file.loads")
+                .description("Загрузки документа Figma: выполненные и присоединившиеся к идущей")
+                .tag("type", "originating")
+                .register(meterRegistry);
+
+        this.fileLoadCoalescedCounter = Counter.builder("figma.file.loads")
+                .description("Загрузки документа Figma: выполненные и присоединившиеся к идущей")
+                .tag("type", "coalesced")
+                .register(meterRegistry);
+
+        this.zipQueueDepth = meterRegistry.gauge("figma.archive.zip.queue.depth", new AtomicLong(0),
+                AtomicLong::doubleValue);
+
+        this.zipWriterStallTimer = Timer.builder("figma.archive.zip.writer.stall")
+                .description("Ожидание потоком записи ZIP следующей по порядку записи")
+                .register(meterRegistry);
+
+        this.zipStoredBytesCounter = Counter.builder("figma.archive.zip.bytes")
+                .description("Байты записей ZIP по способу хранения: исходные и записанные")
+                .tags("method", "stored", "size", "original")
+                .register(meterRegistry);
+
+        this.zipDeflatedInputBytesCounter = Counter.builder("figma.archive.zip.bytes")
+                .description("Байты записей ZIP по способу хранения: исходные и записанные")
+                .tags("method", "deflated", "size", "original")
+                .register(meterRegistry);
+
+        this.zipDeflatedOutputBytesCounter = Counter.builder("figma.archive.zip.bytes")
+                .description("Байты записей ZIP по способу хранения: исходные и записанные")
+                .tags("method", "deflated", "size", "compressed")
+                .register(meterRegistry);
+
+        this.zipDeflateRatio = DistributionSummary.builder("figma.archive.zip.deflate.ratio")
+                .description("Отношение сжатого размера записи ZIP к исходному")
+                .register(meterRegistry);
     }
 
     @Override
@@ -78,4 +126,66 @@ public class MetricsService implements IMetricsService {
     public void decrementActiveDownloads() {
         activeDownloads.decrementAndGet();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void recordFileLoadOriginated() {
+        fileLoadOriginatedCounter.increment();
+    }
+
+    @Override
+    public void recordFileLoadCoalesced() {
+        fileLoadCoalescedCounter.increment();
+    }
+
+    @Override
+    public void incrementZipQueueDepth() {
+        zipQueueDepth.incrementAndGet();
+    }
+
+    @Override
+    public void decrementZipQueueDepth() {
+        zipQueueDepth.decrementAndGet();
+    }
+
+    @Override
+    public void recordZipWriterStall(long nanos) {
+        zipWriterStallTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordZipEntry(boolean stored, long size, long compressedSize) {
+        if (stored) {
+            zipStoredBytesCounter.increment(size);
+            return;
+        }
+        zipDeflatedInputBytesCounter.increment(size);
+        zipDeflatedOutputBytesCounter.increment(compressedSize);
+        if (size > 0) {
+            zipDeflateRatio.record((double) compressedSize / size);
+        }
+    }
+
+    @Override
+    public void registerConnectionPoolRoute(String route, IntSupplier leased, IntSupplier pending, IntSupplier available) {
+        registerConnectionPoolGauge(route, "leased", leased);
+        registerConnectionPoolGauge(route, "pending", pending);
+        registerConnectionPoolGauge(route, "available", available);
+    }
+
+    @Override
+    public void recordConnectionLeaseWait(String route, long nanos) {
+        Timer.builder("figma.http.pool.lease.wait")
+                .description("Ожидание соединения из пула HTTP-клиента")
+                .tag("route", route)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void registerConnectionPoolGauge(String route, String state, IntSupplier value) {
+        Gauge.builder("figma.http.pool.connections", value, IntSupplier::getAsInt)
+                .description("Соединения пула HTTP-клиента по маршруту и состоянию")
+                .tags("route", route, "state", state)
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+}
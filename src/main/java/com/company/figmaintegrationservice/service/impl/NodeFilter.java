@@ -0,0 +1,172 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.company.figmaintegrationservice.config.ArchiveSettings;
+import com.company.figmaintegrationservice.utils.FigmaNodeUtils;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Фильтр узлов, скомпилированный из настроек задачи один раз.
+ * Каждая опция превращается в отдельный предикат, и в итоговое дерево попадают только заданные опции,
+ * поэтому фильтр без ограничений стоит столько же, сколько прежние жёстко заданные проверки.
+ *
+ * Фильтр работает на трёх уровнях:
+ * <ul>
+ *     <li>страницы — не прошедшие страницы не запрашиваются у Figma API;</li>
+ *     <li>поддеревья — скрытые узлы и фреймы верхнего уровня, не подходящие по имени, отсекаются вместе с потомками;</li>
+ *     <li>записи — какие узлы выгружаются как тексты и как изображения.</li>
+ * </ul>
+ */
+public final class NodeFilter {
+
+    private static final Predicate<FigmaNode> TEXT_NODE =
+            node -> "TEXT".equals(node.getType()) && node.getCharacters() != null;
+
+    private static final Predicate<FigmaNode> IMAGE_NODE = FigmaNodeUtils::isImageNode;
+
+    /** Фильтр без ограничений: поведение обхода до появления настроек фильтрации. */
+    public static final NodeFilter ALL = new NodeFilter(null, null, null, TEXT_NODE, IMAGE_NODE);
+
+    private final Predicate<String> pagePredicate;
+    private final Predicate<FigmaNode> prunePredicate;
+    private final Predicate<FigmaNode> topLevelPrunePredicate;
+    private final Predicate<FigmaNode> textPredicate;
+    private final Predicate<FigmaNode> imagePredicate;
+
+    private NodeFilter(Predicate<String> pagePredicate, Predicate<FigmaNode> prunePredicate,
+                       Predicate<FigmaNode> topLevelPrunePredicate,
+                       Predicate<FigmaNode> textPredicate, Predicate<FigmaNode> imagePredicate) {
+        this.pagePredicate = pagePredicate;
+        this.prunePredicate = prunePredicate;
+        this.topLevelPrunePredicate = topLevelPrunePredicate;
+        this.textPredicate = textPredicate;
+        this.imagePredicate = imagePredicate;
+    }
+
+    /**
+     * Компилирует настройки задачи в фильтр.
+     *
+     * @throws IllegalArgumentException если шаблон имени страницы или фрейма не является регулярным выражением
+     */
+    public static NodeFilter compile(ArchiveSettings settings) {
+        if (settings == null) {
+            return ALL;
+        }
+
+        Predicate<String> pagePredicate = namePredicate(settings.getPagePattern());
+
+        Predicate<FigmaNode> prunePredicate = settings.isSkipHidden()
+                ? node -> Boolean.FALSE.equals(node.getVisible())
+                : null;
+
+        Predicate<String> framePredicate = namePredicate(settings.getFramePattern());
+        Predicate<FigmaNode> topLevelPrunePredicate = framePredicate != null
+                ? node -> !framePredicate.test(node.getName())
+                : null;
+
+        Set<String> types = nodeTypes(settings.getNodeTypes());
+        Predicate<FigmaNode> typePredicate = types != null
+                ? node -> node.getType() != null && types.contains(node.getType())
+                : null;
+
+        Predicate<FigmaNode> textPredicate = null;
+        if (settings.isIncludeText() && (types == null || types.contains("TEXT"))) {
+            textPredicate = and(TEXT_NODE, typePredicate);
+        }
+
+        Predicate<FigmaNode> imagePredicate = null;
+        if (settings.isIncludeImages()) {
+            imagePredicate = IMAGE_NODE;
+            if (!settings.isIncludeFrames()) {
+                imagePredicate = imagePredicate.and(node -> !"FRAME".equals(node.getType()));
+            }
+            if (!settings.isIncludeGroups()) {
+                imagePredicate = imagePredicate.and(node -> !"GROUP".equals(node.getType()));
+            }
+            imagePredicate = and(imagePredicate, typePredicate);
+        }
+
+        return new NodeFilter(pagePredicate, prunePredicate, topLevelPrunePredicate, textPredicate, imagePredicate);
+    }
+
+    public boolean acceptsPage(PageNode page) {
+        return pagePredicate == null || pagePredicate.test(page.getName());
+    }
+
+    public boolean acceptsPageName(String pageName) {
+        return pagePredicate == null || pagePredicate.test(pageName);
+    }
+
+    /**
+     * Узел отсекается вместе со всем поддеревом.
+     *
+     * @param topLevel узел верхнего уровня страницы (или корень выбранного узла)
+     */
+    public boolean prunes(FigmaNode node, boolean topLevel) {
+        return (prunePredicate != null && prunePredicate.test(node))
+                || (topLevel && topLevelPrunePredicate != null && topLevelPrunePredicate.test(node));
+    }
+
+    public boolean acceptsText(FigmaNode node) {
+        return textPredicate != null && textPredicate.test(node);
+    }
+
+    public boolean acceptsImage(FigmaNode node) {
+        return imagePredicate != null && imagePredicate.test(node);
+    }
+
+    public boolean wantsTexts() {
+        return textPredicate != null;
+    }
+
+    public boolean wantsImages() {
+        return imagePredicate != null;
+    }
+
+    /**
+     * Фильтр ограничивает страницы: часть страниц можно не запрашивать.
+     */
+    public boolean filtersPages() {
+        return pagePredicate != null;
+    }
+
+    /**
+     * Фильтру нужны свойства отдельных узлов, поэтому он не применим к готовым записям потокового разбора.
+     */
+    public boolean needsNodes() {
+        return prunePredicate != null || topLevelPrunePredicate != null
+                || (textPredicate != null && textPredicate != TEXT_NODE)
+                || (imagePredicate != null && imagePredicate != IMAGE_NODE);
+    }
+
+    private static Predicate<FigmaNode> and(Predicate<FigmaNode> base, Predicate<FigmaNode> extra) {
+        return extra == null ? base : base.and(extra);
+    }
+
+    private static Predicate<String> namePredicate(String regex) {
+        if (regex == null || regex.isBlank()) {
+            return null;
+        }
+        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return name -> name != null && pattern.matcher(name).find();
+    }
+
+    private static Set<String> nodeTypes(String[] nodeTypes) {
+        if (nodeTypes == null || nodeTypes.length == 0) {
+            return null;
+        }
+        Set<String> types = Arrays.stream(nodeTypes)
+                .map(String::trim)
+                .filter(type -> !type.isEmpty())
+                .map(type -> type.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        return types.isEmpty() ? null : types;
+    }
+}
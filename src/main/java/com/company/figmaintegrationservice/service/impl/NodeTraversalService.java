@@ -1,15 +1,21 @@
 package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.PageNode;
 import com.company.figmaintegrationservice.dto.FigmaImageDto;
 import com.company.figmaintegrationservice.dto.FigmaTextDto;
 import com.company.figmaintegrationservice.mapper.FigmaMapper;
+import com.company.figmaintegrationservice.utils.FigmaNodeUtils;
+import com.company.figmaintegrationservice.utils.NodePath;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Сервис для обхода дерева узлов Figma.
@@ -24,6 +30,8 @@ public class NodeTraversalService {
 
     /**
      * Обходит дерево узлов и собирает тексты и изображения.
+     * Обход итеративный (явный стек), поэтому глубина дерева не ограничена стеком потока.
+     * Путь хранится как ссылка на родителя и превращается в строку только для выгружаемых узлов.
      *
      * @param node корневой узел для обхода
      * @param pageName имя страницы
@@ -33,21 +41,53 @@ public class NodeTraversalService {
      */
     public void traverseNode(FigmaNode node, String pageName, String path,
                             List<FigmaTextDto> texts, List<FigmaImageDto> images) {
-        if (node == null) return;
+        traverseNode(node, pageName, path, NodeFilter.ALL, texts, images);
+    }
+
+    /**
+     * Обходит дерево узлов с фильтром: отсечённые фильтром поддеревья не посещаются.
+     *
+     * @param node корневой узел для обхода (узел верхнего уровня для фильтра)
+     * @param filter скомпилированный фильтр узлов
+     */
+    public void traverseNode(FigmaNode node, String pageName, String path, NodeFilter filter,
+                             List<FigmaTextDto> texts, List<FigmaImageDto> images) {
+        traverseNode(node, pageName, path, filter, Integer.MAX_VALUE, texts, images);
+    }
 
-        String currentPath = path.isEmpty() ? node.getName() : path + " → " + node.getName();
+    /**
+     * Обходит дерево узлов с фильтром, не опускаясь глубже maxDepth уровней от корня
+     * (как параметр depth запроса /nodes: 1 — только прямые потомки).
+     */
+    public void traverseNode(FigmaNode node, String pageName, String path, NodeFilter filter, int maxDepth,
+                             List<FigmaTextDto> texts, List<FigmaImageDto> images) {
+        if (node == null || filter.prunes(node, true)) return;
 
-        if ("TEXT".equals(node.getType()) && node.getCharacters() != null) {
-            texts.add(figmaMapper.toTextDto(node, pageName, node.getFrameName(), currentPath));
-        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(node, NodePath.root(path), 0));
 
-        if ("RECTANGLE".equals(node.getType()) && Boolean.TRUE.equals(node.getHasImageFill())) {
-            images.add(figmaMapper.toImageDto(node, pageName, node.getFrameName(), currentPath));
-        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.pop();
+            FigmaNode current = frame.node();
+            NodePath currentPath = frame.parentPath().child(current.getName());
 
-        if (node.getChildren() != null) {
-            for (FigmaNode child : node.getChildren()) {
-                traverseNode(child, pageName, currentPath, texts, images);
+            if (filter.acceptsText(current)) {
+                texts.add(figmaMapper.toTextDto(current, pageName, current.getFrameName(), currentPath.materialize()));
+            }
+
+            if (filter.acceptsImage(current)) {
+                images.add(figmaMapper.toImageDto(current, pageName, current.getFrameName(), currentPath.materialize()));
+            }
+
+            List<FigmaNode> children = current.getChildren();
+            if (children != null && frame.level() < maxDepth) {
+                // В обратном порядке, чтобы потомки обходились в том же порядке, что и при рекурсии
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    FigmaNode child = children.get(i);
+                    if (child != null && !filter.prunes(child, false)) {
+                        stack.push(new Frame(child, currentPath, frame.level() + 1));
+                    }
+                }
             }
         }
     }
@@ -57,9 +97,70 @@ public class NodeTraversalService {
      */
     public void traverseNodes(List<FigmaNode> nodes, String pageName, String path,
                               List<FigmaTextDto> texts, List<FigmaImageDto> images) {
+        traverseNodes(nodes, pageName, path, NodeFilter.ALL, texts, images);
+    }
+
+    /**
+     * Обходит список узлов с фильтром.
+     */
+    public void traverseNodes(List<FigmaNode> nodes, String pageName, String path, NodeFilter filter,
+                              List<FigmaTextDto> texts, List<FigmaImageDto> images) {
         if (nodes == null) return;
         for (FigmaNode node : nodes) {
-            traverseNode(node, pageName, path, texts, images);
+            traverseNode(node, pageName, path, filter, texts, images);
         }
     }
+
+    /**
+     * Параллельно обходит страницы в ForkJoinPool.
+     * Единицей работы служит узел верхнего уровня страницы (обычно фрейм), поэтому
+     * одна большая страница тоже делится между потоками. Результаты каждой единицы копятся
+     * в отдельном буфере и сливаются по порядку, так что вывод совпадает с последовательным обходом.
+     *
+     * @param pages страницы документа
+     * @param filter скомпилированный фильтр узлов
+     * @param pool пул ForkJoin для подзадач
+     * @param texts список для накопления текстов
+     * @param images список для накопления изображений
+     */
+    public void traversePagesParallel(List<PageNode> pages, NodeFilter filter, ForkJoinPool pool,
+                                      List<FigmaTextDto> texts, List<FigmaImageDto> images) {
+        if (pages == null) return;
+
+        List<TraversalTask.Unit> units = new ArrayList<>();
+        for (PageNode page : pages) {
+            if (page.getChildren() != null && filter.acceptsPage(page)) {
+                for (FigmaNode node : page.getChildren()) {
+                    if (node != null && !filter.prunes(node, true)) {
+                        units.add(new TraversalTask.Unit(node, page.getName()));
+                    }
+                }
+            }
+        }
+        if (units.isEmpty()) return;
+
+        TraversalTask.Buffer[] buffers = new TraversalTask.Buffer[units.size()];
+        pool.invoke(new TraversalTask(this, filter, units, buffers, 0, units.size()));
+
+        int textCount = 0;
+        int imageCount = 0;
+        for (TraversalTask.Buffer buffer : buffers) {
+            textCount += buffer.texts().size();
+            imageCount += buffer.images().size();
+        }
+        if (texts instanceof ArrayList<FigmaTextDto> textList) {
+            textList.ensureCapacity(texts.size() + textCount);
+        }
+        if (images instanceof ArrayList<FigmaImageDto> imageList) {
+            imageList.ensureCapacity(images.size() + imageCount);
+        }
+        for (TraversalTask.Buffer buffer : buffers) {
+            texts.addAll(buffer.texts());
+            images.addAll(buffer.images());
+        }
+        log.debug("🧵 Параллельный обход: {} страниц, {} единиц обхода", pages.size(), units.size());
+    }
+
+    private record Frame(FigmaNode node, NodePath parentPath, int level) {
+    }
 }
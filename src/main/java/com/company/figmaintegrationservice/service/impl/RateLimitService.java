@@ -1,60 +1,288 @@
 package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.service.IRateLimitService;
-import com.google.common.util.concurrent.RateLimiter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Сервис для ограничения скорости запросов к Figma API.
- * Использует Guava RateLimiter для гарантированного соблюдения лимитов.
- * 
- * Настройки по умолчанию: 3 запроса в секунду = ~180 запросов в минуту
+ * Figma считает лимиты по токену, поэтому у каждого токена свой адаптивный
+ * {@link AdaptiveTokenBucket} (AIMD + пауза Retry-After), а поверх всех —
+ * общий потолок скорости инстанса. Бакеты хранятся по SHA-256 хэшу токена
+ * и вытесняются после простоя.
+ *
+ * Загрузки изображений (ключи с префиксом {@link #IMAGE_KEY_PREFIX}) идут на CDN, а не в API:
+ * у них свой общий потолок, чтобы сборка архивов не отнимала слоты у запросов /files и /nodes.
+ *
+ * Запрос резервирует ближайший свободный слот сначала в бакете токена,
+ * затем в общем бакете, и ждёт его наступления: блокирующий {@link #acquire(String)} —
+ * сном потока, реактивный {@link #acquireReactive(String)} — таймером Reactor,
+ * поэтому ожидающий запрос стоит подписку, а не поток. Если к наступлению слота
+ * токен оказался на паузе Retry-After, слот резервируется заново — после паузы
+ * ожидавшие запросы идут с интервалом, а не пачкой.
+ *
+ * Настройки по умолчанию: старт с 3 запросов в секунду на токен = ~180 запросов в минуту
  * (ниже лимита Figma ~200 запросов/минуту)
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class RateLimitService implements IRateLimitService, InitializingBean {
 
+    /** Ключ бакета для запросов без токена. */
+    private static final String ANONYMOUS_KEY = "anonymous";
+
+    private final MeterRegistry meterRegistry;
+
     @Value("${figma.rate-limit.requests-per-second:3.0}")
     private double requestsPerSecond;
 
-    private RateLimiter rateLimiter;
+    @Value("${figma.rate-limit.min-requests-per-second:0.5}")
+    private double minRequestsPerSecond;
+
+    @Value("${figma.rate-limit.max-requests-per-second:6.0}")
+    private double maxRequestsPerSecond;
+
+    @Value("${figma.rate-limit.additive-increase:0.05}")
+    private double additiveIncrease;
+
+    @Value("${figma.rate-limit.decrease-factor:0.5}")
+    private double decreaseFactor;
+
+    @Value("${figma.rate-limit.global-max-requests-per-second:30.0}")
+    private double globalMaxRequestsPerSecond;
+
+    @Value("${figma.rate-limit.image-global-max-requests-per-second:60.0}")
+    private double imageGlobalMaxRequestsPerSecond;
+
+    @Value("${figma.rate-limit.bucket-idle-minutes:30}")
+    private long bucketIdleMinutes;
+
+    private Cache<String, AdaptiveTokenBucket> buckets;
+    private AdaptiveTokenBucket globalBucket;
+    private AdaptiveTokenBucket imageGlobalBucket;
+    private Counter throttledCounter;
 
     @Override
     public void afterPropertiesSet() {
-        rateLimiter = RateLimiter.create(requestsPerSecond);
-        log.info("🚦 Rate limiter инициализирован: {} запросов/сек ({} запросов/мин)",
-                requestsPerSecond, (int)(requestsPerSecond * 60));
+        buckets = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(bucketIdleMinutes))
+                .build();
+        globalBucket = new AdaptiveTokenBucket(globalMaxRequestsPerSecond,
+                globalMaxRequestsPerSecond, globalMaxRequestsPerSecond, 0, 1);
+        imageGlobalBucket = new AdaptiveTokenBucket(imageGlobalMaxRequestsPerSecond,
+                imageGlobalMaxRequestsPerSecond, imageGlobalMaxRequestsPerSecond, 0, 1);
+
+        Gauge.builder("figma.rate-limit.current-rate", this, RateLimitService::getCurrentRate)
+                .description("Суммарная разрешённая скорость запросов к Figma API по всем токенам, запросов/сек")
+                .register(meterRegistry);
+        Gauge.builder("figma.rate-limit.active-buckets", this, s -> s.buckets.estimatedSize())
+                .description("Количество активных бакетов rate limiter (токенов)")
+                .register(meterRegistry);
+        throttledCounter = Counter.builder("figma.rate-limit.throttled")
+                .description("Ответы 429 от Figma API")
+                .register(meterRegistry);
+
+        log.info("🚦 Rate limiter инициализирован: {} запросов/сек на токен ({} запросов/мин), диапазон {}–{}, общий потолок {}, потолок изображений {}",
+                requestsPerSecond, (int)(requestsPerSecond * 60), minRequestsPerSecond, maxRequestsPerSecond,
+                globalMaxRequestsPerSecond, imageGlobalMaxRequestsPerSecond);
     }
 
     @Override
-    public void acquire() throws InterruptedException {
+    public void acquire(String token) throws InterruptedException {
         try {
-            rateLimiter.acquire();
+            AdaptiveTokenBucket bucket = bucket(token);
+            AdaptiveTokenBucket ceiling = ceiling(token);
+            // Пока ждали слот, мог прийти 429 с Retry-After: слот внутри паузы резервируется заново
+            do {
+                awaitSlot(reserve(bucket, ceiling, AdaptiveTokenBucket.NO_DEADLINE));
+            } while (bucket.isCoolingDown(System.nanoTime()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-                throw e;
-            }
             log.error("❌ Ошибка при получении разрешения rate limiter: {}", e.getMessage());
             throw new RuntimeException("Ошибка rate limiter", e);
         }
     }
 
     @Override
-    public boolean tryAcquire(long timeoutMs) throws InterruptedException {
+    public boolean tryAcquire(String token, long timeoutMs) throws InterruptedException {
         try {
-            return rateLimiter.tryAcquire(timeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+            AdaptiveTokenBucket bucket = bucket(token);
+            AdaptiveTokenBucket ceiling = ceiling(token);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            do {
+                Reservation reservation = reserve(bucket, ceiling, deadline - System.nanoTime());
+                if (reservation == null) {
+                    return false;
+                }
+                awaitSlot(reservation);
+            } while (bucket.isCoolingDown(System.nanoTime()));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         } catch (Exception e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-                throw e;
-            }
             log.error("❌ Ошибка при попытке получить разрешение rate limiter: {}", e.getMessage());
             return false;
         }
     }
+
+    @Override
+    public Mono<Void> acquireReactive(String token) {
+        return Mono.defer(() -> acquireReactive(bucket(token), ceiling(token)));
+    }
+
+    private Mono<Void> acquireReactive(AdaptiveTokenBucket bucket, AdaptiveTokenBucket ceiling) {
+        return Mono.defer(() -> {
+            Reservation reservation = reserve(bucket, ceiling, AdaptiveTokenBucket.NO_DEADLINE);
+            long waitNanos = reservation.globalSlot() - System.nanoTime();
+            // Отменённая подписка возвращает слот, иначе он пропадает впустую
+            Mono<Void> slot = waitNanos > 0
+                    ? Mono.delay(Duration.ofNanos(waitNanos)).then().doOnCancel(() -> release(reservation))
+                    : Mono.empty();
+            return slot.then(Mono.defer(() -> bucket.isCoolingDown(System.nanoTime())
+                    ? acquireReactive(bucket, ceiling)
+                    : Mono.<Void>empty()));
+        });
+    }
+
+    @Override
+    public void onSuccess(String token) {
+        bucket(token).increase();
+    }
+
+    @Override
+    public void onRateLimited(String token, Duration retryAfter) {
+        throttledCounter.increment();
+        AdaptiveTokenBucket bucket = bucket(token);
+        double previous = bucket.getCurrentRate();
+        if (bucket.decrease(retryAfter)) {
+            log.warn("🐢 429 от Figma API [{}]: скорость {} → {} запросов/сек, пауза {} сек",
+                    shortKey(token), String.format("%.2f", previous), String.format("%.2f", bucket.getCurrentRate()),
+                    retryAfter != null ? retryAfter.toSeconds() : 0);
+        }
+    }
+
+    @Override
+    public double getCurrentRate(String token) {
+        // Чтение метрики не создаёт бакет: у неизвестного токена начальная скорость
+        AdaptiveTokenBucket bucket = buckets.getIfPresent(bucketKey(token));
+        return bucket != null ? bucket.getCurrentRate() : Math.max(minRequestsPerSecond,
+                Math.min(maxRequestsPerSecond, requestsPerSecond));
+    }
+
+    @Override
+    public double getCurrentRate() {
+        double total = buckets.asMap().entrySet().stream()
+                .filter(entry -> !entry.getKey().startsWith(IMAGE_KEY_PREFIX))
+                .mapToDouble(entry -> entry.getValue().getCurrentRate())
+                .sum();
+        return Math.min(total, globalMaxRequestsPerSecond);
+    }
+
+    /**
+     * Слоты, зарезервированные в бакете токена и в общем бакете (API или изображений).
+     */
+    private record Reservation(AdaptiveTokenBucket bucket, AdaptiveTokenBucket ceiling, long tokenSlot, long globalSlot) {
+    }
+
+    /**
+     * Резервирует слот в бакете токена, а затем в общем бакете не раньше него.
+     * Оба резерва делаются под монитором бакета токена (порядок блокировок: токен, затем общий бакет),
+     * поэтому при неудаче в общем бакете слот токена остаётся последним и возвращается точно.
+     *
+     * @param maxWaitNanos наибольшее ожидание слота или {@link AdaptiveTokenBucket#NO_DEADLINE}
+     * @return резерв или null, если ждать пришлось бы дольше maxWaitNanos
+     */
+    private Reservation reserve(AdaptiveTokenBucket bucket, AdaptiveTokenBucket ceiling, long maxWaitNanos) {
+        long now = System.nanoTime();
+        long deadline = maxWaitNanos == AdaptiveTokenBucket.NO_DEADLINE
+                ? AdaptiveTokenBucket.NO_DEADLINE
+                : now + maxWaitNanos;
+        synchronized (bucket) {
+            long tokenSlot = bucket.reserve(now, deadline);
+            if (tokenSlot == Long.MIN_VALUE) {
+                return null;
+            }
+            long globalSlot = ceiling.reserve(tokenSlot, deadline);
+            if (globalSlot == Long.MIN_VALUE) {
+                // Запрос не будет выполнен — слот токена не должен отодвигать следующие
+                bucket.release(tokenSlot);
+                return null;
+            }
+            return new Reservation(bucket, ceiling, tokenSlot, globalSlot);
+        }
+    }
+
+    private void release(Reservation reservation) {
+        reservation.ceiling().release(reservation.globalSlot());
+        reservation.bucket().release(reservation.tokenSlot());
+    }
+
+    /**
+     * Ждёт наступления слота; при прерывании слот возвращается.
+     */
+    private void awaitSlot(Reservation reservation) throws InterruptedException {
+        long nanos = reservation.globalSlot() - System.nanoTime();
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            release(reservation);
+            throw e;
+        }
+    }
+
+    private AdaptiveTokenBucket bucket(String token) {
+        return buckets.get(bucketKey(token), key -> new AdaptiveTokenBucket(requestsPerSecond,
+                minRequestsPerSecond, maxRequestsPerSecond, additiveIncrease, decreaseFactor));
+    }
+
+    /**
+     * Общий потолок для ключа: загрузки изображений не расходуют потолок запросов к API.
+     */
+    private AdaptiveTokenBucket ceiling(String token) {
+        return isImageKey(token) ? imageGlobalBucket : globalBucket;
+    }
+
+    private static boolean isImageKey(String token) {
+        return token != null && token.startsWith(IMAGE_KEY_PREFIX);
+    }
+
+    /**
+     * Токен не хранится в памяти лимитера в открытом виде — только его хэш.
+     * Ключ загрузок изображений содержит ID задачи, а не токен, и хранится как есть.
+     */
+    private static String bucketKey(String token) {
+        if (token == null || token.isBlank()) {
+            return ANONYMOUS_KEY;
+        }
+        if (isImageKey(token)) {
+            return token;
+        }
+        return Hashing.sha256().hashString(token, StandardCharsets.UTF_8).toString();
+    }
+
+    private static String shortKey(String token) {
+        String key = bucketKey(token);
+        return key.length() > 8 ? key.substring(0, 8) : key;
+    }
 }
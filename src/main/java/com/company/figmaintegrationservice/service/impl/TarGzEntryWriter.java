@@ -0,0 +1,101 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
+import com.company.figmaintegrationservice.utils.ParallelGzipOutputStream;
+import com.company.figmaintegrationservice.utils.TarWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * Запись архива в tar.gz: tar пишется потоком в {@link ParallelGzipOutputStream},
+ * который сжимает блоки параллельно на исполнителе. Поток записи архива только копирует байты.
+ *
+ * Заголовок tar содержит размер записи, поэтому генерируемое содержимое сначала пишется во временный файл.
+ */
+@Slf4j
+final class TarGzEntryWriter implements ArchiveEntryWriter {
+
+    private final ParallelGzipOutputStream gzip;
+    private final TarWriter tar;
+
+    TarGzEntryWriter(OutputStream outputStream, int blockSize, int level, Executor executor, int maxInFlight) {
+        this.gzip = new ParallelGzipOutputStream(outputStream, blockSize, level, executor, maxInFlight);
+        this.tar = new TarWriter(gzip);
+    }
+
+    @Override
+    public long write(String entryName, byte[] data) throws IOException {
+        if (!isValid(entryName, data != null ? data.length : 0)) {
+            return 0;
+        }
+        long written = tar.putEntry(entryName, data.length, System.currentTimeMillis());
+        tar.write(data);
+        return written + tar.closeEntry();
+    }
+
+    @Override
+    public long write(String entryName, EntryContent content) throws IOException {
+        Path file = Files.createTempFile("figma-entry-", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                content.writeTo(out);
+            }
+            long size = Files.size(file);
+            if (!isValid(entryName, size)) {
+                return 0;
+            }
+            long written = tar.putEntry(entryName, size, System.currentTimeMillis());
+            Files.copy(file, tar);
+            return written + tar.closeEntry();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public long writeImage(String entryName, DownloadedImage image) throws IOException {
+        if (!isValid(entryName, image != null ? image.size() : 0)) {
+            return 0;
+        }
+        long written = tar.putEntry(entryName, image.size(), System.currentTimeMillis());
+        try (InputStream in = image.openStream()) {
+            in.transferTo(tar);
+        }
+        return written + tar.closeEntry();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        gzip.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        tar.finish();
+        gzip.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        gzip.close();
+    }
+
+    private boolean isValid(String entryName, long size) {
+        if (entryName == null || entryName.isBlank()) {
+            log.warn("⚠️ Пропуск: имя файла пустое");
+            return false;
+        }
+        if (size == 0) {
+            log.warn("⚠️ Пропуск {}: данные отсутствуют", entryName);
+            return false;
+        }
+        return true;
+    }
+}
@@ -2,7 +2,9 @@ package com.company.figmaintegrationservice.service.impl;
 
 import com.company.figmaintegrationservice.config.ArchiveSettings;
 import com.company.figmaintegrationservice.dto.FigmaExportDto;
+import com.company.figmaintegrationservice.service.IFigmaArchiveService;
 import com.company.figmaintegrationservice.service.ITaskService;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -12,10 +14,15 @@ import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class TaskService implements ITaskService {
 
+    private final ArchiveSpoolService archiveSpoolService;
+    private final IFigmaArchiveService archiveService;
+
     private final Map<String, ITaskService.TaskProgress> tasks = new ConcurrentHashMap<>();
-    private final Map<String, FigmaExportDto> exportData = new ConcurrentHashMap<>();
+    /** Результаты экспорта хранятся в компактном виде: словарь строк и столбцы записей. */
+    private final Map<String, CompactFigmaExport> exportData = new ConcurrentHashMap<>();
     private final Map<String, ArchiveSettings> archiveSettings = new ConcurrentHashMap<>();
 
     @Override
@@ -42,11 +49,18 @@ public class TaskService implements ITaskService {
     }
 
     public void setExportData(String taskId, FigmaExportDto exportDto) {
-        exportData.put(taskId, exportDto);
+        CompactFigmaExport compact = CompactFigmaExport.of(exportDto);
+        exportData.put(taskId, compact);
+        log.debug("Задача {}: {} текстов, {} изображений, {} уникальных строк",
+                taskId, compact.getTextCount(), compact.getImageCount(), compact.getDictionarySize());
     }
 
+    /**
+     * Возвращает результат экспорта со списками-представлениями над компактным хранением.
+     */
     public FigmaExportDto getExportData(String taskId) {
-        return exportData.get(taskId);
+        CompactFigmaExport compact = exportData.get(taskId);
+        return compact != null ? compact.toExportDto() : null;
     }
 
     public void setArchiveSettings(String taskId, ArchiveSettings settings) {
@@ -61,6 +75,8 @@ public class TaskService implements ITaskService {
         tasks.remove(taskId);
         exportData.remove(taskId);
         archiveSettings.remove(taskId);
+        archiveSpoolService.delete(taskId);
+        archiveService.discardPrefetched(taskId);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Подзадача ForkJoin для параллельного обхода: диапазон единиц обхода (узлов верхнего уровня страниц)
+ * делится пополам, пока в нём не останется одна единица. Каждая единица пишет в собственный буфер
+ * в слоте со своим номером, поэтому итоговое слияние по номерам даёт порядок последовательного обхода.
+ */
+class TraversalTask extends RecursiveAction {
+
+    /**
+     * Единица обхода: узел верхнего уровня страницы.
+     */
+    record Unit(FigmaNode node, String pageName) {
+    }
+
+    /**
+     * Буфер результатов одной единицы обхода.
+     */
+    record Buffer(List<FigmaTextDto> texts, List<FigmaImageDto> images) {
+    }
+
+    private final NodeTraversalService traversalService;
+    private final NodeFilter filter;
+    private final List<Unit> units;
+    private final Buffer[] buffers;
+    private final int from;
+    private final int to;
+
+    TraversalTask(NodeTraversalService traversalService, NodeFilter filter,
+                  List<Unit> units, Buffer[] buffers, int from, int to) {
+        this.traversalService = traversalService;
+        this.filter = filter;
+        this.units = units;
+        this.buffers = buffers;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= 1) {
+            for (int i = from; i < to; i++) {
+                Unit unit = units.get(i);
+                Buffer buffer = new Buffer(new ArrayList<>(), new ArrayList<>());
+                traversalService.traverseNode(unit.node(), unit.pageName(), "", filter, buffer.texts(), buffer.images());
+                buffers[i] = buffer;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        invokeAll(new TraversalTask(traversalService, filter, units, buffers, from, middle),
+                new TraversalTask(traversalService, filter, units, buffers, middle, to));
+    }
+}
@@ -1,51 +1,94 @@
 package com.company.figmaintegrationservice.service.impl;
 
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
  * Сервис для работы с ZIP архивами.
  * Отвечает только за операции с ZIP (Single Responsibility Principle).
+ *
+ * Политика сжатия по записям: текстовые файлы (figma.json, реестры) сжимаются deflate с настраиваемым уровнем,
+ * а изображения в уже сжатых форматах (PNG, JPEG, GIF, WebP) пишутся без сжатия (STORED) —
+ * повторное сжатие почти не уменьшает их, но занимает основное время процессора при сборке архива.
  */
 @Slf4j
 @Service
 public class ZipArchiveService {
 
+    private static final int SIGNATURE_LENGTH = 12;
+
+    @Value("${figma.archive.deflate-level:-1}")
+    private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+
     /**
      * Создает ZIP архив и возвращает ZipOutputStream для записи.
      */
     public ZipOutputStream createZipArchive(OutputStream outputStream) {
-        return new ZipOutputStream(new BufferedOutputStream(outputStream));
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(outputStream));
+        zip.setLevel(deflateLevel);
+        return zip;
     }
 
     /**
-     * Добавляет файл в ZIP архив.
+     * Добавляет файл в ZIP архив со сжатием.
+     * Поток не сбрасывается после каждой записи: сброс по объёму выполняет {@link ArchiveWriterStage}.
      *
      * @param zip ZIP поток
      * @param fileName имя файла
      * @param data данные файла
+     * @return записанная запись (после закрытия в ней заполнены размеры) или null, если запись пропущена
      * @throws IOException если произошла ошибка при добавлении
      */
-    public void addToZip(ZipOutputStream zip, String fileName, byte[] data) throws IOException {
+    public ZipEntry addToZip(ZipOutputStream zip, String fileName, byte[] data) throws IOException {
+        if (!isValid(fileName, data)) {
+            return null;
+        }
+        return write(zip, new ZipEntry(fileName), data);
+    }
+
+    /**
+     * Добавляет изображение в ZIP архив. Уже сжатые форматы пишутся без сжатия с готовой CRC32,
+     * остальные (например, SVG) сжимаются как обычные файлы.
+     * Изображение из временного файла копируется в запись буфером, без чтения целиком в память.
+     */
+    public ZipEntry addImageToZip(ZipOutputStream zip, String fileName, DownloadedImage image) throws IOException {
         if (fileName == null || fileName.isBlank()) {
             log.warn("⚠️ Пропуск: имя файла пустое");
-            return;
+            return null;
         }
-        if (data == null || data.length == 0) {
+        if (image == null || image.size() == 0) {
             log.warn("⚠️ Пропуск {}: данные отсутствуют", fileName);
-            return;
+            return null;
         }
-        try {
-            zip.putNextEntry(new ZipEntry(fileName));
-            zip.write(data);
+
+        try (InputStream in = new BufferedInputStream(image.openStream())) {
+            in.mark(SIGNATURE_LENGTH);
+            byte[] signature = in.readNBytes(SIGNATURE_LENGTH);
+            in.reset();
+
+            ZipEntry entry = new ZipEntry(fileName);
+            if (isCompressedImage(signature)) {
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(image.size());
+                entry.setCompressedSize(image.size());
+                entry.setCrc(image.crc32());
+            }
+
+            zip.putNextEntry(entry);
+            in.transferTo(zip);
             zip.closeEntry();
-            zip.flush();
+            return entry;
         } catch (Exception e) {
             log.error("❌ Ошибка при добавлении {} в ZIP: {}", fileName, e.getMessage());
             throw e;
@@ -59,4 +102,45 @@ public class ZipArchiveService {
         zip.finish();
         zip.flush();
     }
+
+    /**
+     * Определяет уже сжатый формат изображения по сигнатуре (первым {@value #SIGNATURE_LENGTH} байтам).
+     */
+    static boolean isCompressedImage(byte[] data) {
+        if (data.length >= 8 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return true;
+        }
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8 && (data[2] & 0xFF) == 0xFF) {
+            return true;
+        }
+        if (data.length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8') {
+            return true;
+        }
+        return data.length >= 12 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+                && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P';
+    }
+
+    private boolean isValid(String fileName, byte[] data) {
+        if (fileName == null || fileName.isBlank()) {
+            log.warn("⚠️ Пропуск: имя файла пустое");
+            return false;
+        }
+        if (data == null || data.length == 0) {
+            log.warn("⚠️ Пропуск {}: данные отсутствуют", fileName);
+            return false;
+        }
+        return true;
+    }
+
+    private ZipEntry write(ZipOutputStream zip, ZipEntry entry, byte[] data) throws IOException {
+        try {
+            zip.putNextEntry(entry);
+            zip.write(data);
+            zip.closeEntry();
+            return entry;
+        } catch (Exception e) {
+            log.error("❌ Ошибка при добавлении {} в ZIP: {}", entry.getName(), e.getMessage());
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
+import com.company.figmaintegrationservice.service.IMetricsService;
+
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Запись архива в ZIP через {@link ZipArchiveService} с учётом размеров записей в метриках.
+ */
+final class ZipEntryWriter implements ArchiveEntryWriter {
+
+    private final ZipOutputStream zip;
+    private final ZipArchiveService zipArchiveService;
+    private final IMetricsService metricsService;
+
+    ZipEntryWriter(ZipOutputStream zip, ZipArchiveService zipArchiveService, IMetricsService metricsService) {
+        this.zip = zip;
+        this.zipArchiveService = zipArchiveService;
+        this.metricsService = metricsService;
+    }
+
+    @Override
+    public long write(String entryName, byte[] data) throws IOException {
+        return written(zipArchiveService.addToZip(zip, entryName, data));
+    }
+
+    @Override
+    public long write(String entryName, EntryContent content) throws IOException {
+        ZipEntry entry = new ZipEntry(entryName);
+        zip.putNextEntry(entry);
+        content.writeTo(zip);
+        zip.closeEntry();
+        return written(entry);
+    }
+
+    @Override
+    public long writeImage(String entryName, DownloadedImage image) throws IOException {
+        return written(zipArchiveService.addImageToZip(zip, entryName, image));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        zip.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        zipArchiveService.finishZip(zip);
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    private long written(ZipEntry entry) {
+        if (entry == null) {
+            return 0;
+        }
+        metricsService.recordZipEntry(entry.getMethod() == ZipEntry.STORED, entry.getSize(), entry.getCompressedSize());
+        return entry.getCompressedSize();
+    }
+}
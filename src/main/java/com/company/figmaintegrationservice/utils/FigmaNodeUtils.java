@@ -0,0 +1,58 @@
+package com.company.figmaintegrationservice.utils;
+
+import com.company.figmaintegrationservice.client.dto.DocumentNode;
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.FigmaPaint;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+public class FigmaNodeUtils {
+
+    private static final String IMAGE_PAINT = "IMAGE";
+
+    /**
+     * Возвращает imageRef первой видимой заливки картинкой или null.
+     */
+    public static String imageRef(FigmaNode node) {
+        if (node == null || node.getFills() == null) {
+            return null;
+        }
+        for (FigmaPaint paint : node.getFills()) {
+            if (paint != null && IMAGE_PAINT.equals(paint.getType()) && paint.getImageRef() != null
+                    && !Boolean.FALSE.equals(paint.getVisible())) {
+                return paint.getImageRef();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Узел выгружается как изображение: у него есть заливка картинкой
+     * (или заглушка hasImageFill у RECTANGLE в мок-данных).
+     */
+    public static boolean isImageNode(FigmaNode node) {
+        if (node == null) {
+            return false;
+        }
+        if ("RECTANGLE".equals(node.getType()) && Boolean.TRUE.equals(node.getHasImageFill())) {
+            return true;
+        }
+        return imageRef(node) != null;
+    }
+
+    /**
+     * Копия ответа только со страницами, прошедшими фильтр. Исходный документ (например, из кэша) не меняется.
+     */
+    public static FigmaFileResponse withPages(FigmaFileResponse file, Predicate<PageNode> pageFilter) {
+        if (file == null || file.getDocument() == null || file.getDocument().getChildren() == null) {
+            return file;
+        }
+        List<PageNode> pages = file.getDocument().getChildren().stream()
+                .filter(pageFilter)
+                .toList();
+        return new FigmaFileResponse(file.getVersion(), new DocumentNode(pages));
+    }
+}
@@ -0,0 +1,145 @@
+package com.company.figmaintegrationservice.utils;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class HttpUtils {
+
+    /**
+     * Разбирает заголовок Retry-After: число секунд или HTTP-дата.
+     *
+     * @return пауза до повтора или null, если заголовка нет или он некорректен
+     */
+    public static Duration parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String trimmed = value.trim();
+        try {
+            long seconds = Long.parseLong(trimmed);
+            return seconds >= 0 ? Duration.ofSeconds(seconds) : null;
+        } catch (NumberFormatException ignored) {
+            // не число — пробуем HTTP-дату
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration delay = Duration.between(ZonedDateTime.now(at.getZone()), at);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Диапазон байтов из заголовка Range (границы включительно).
+     */
+    public record ByteRange(long start, long end) {
+
+        /** Диапазон за пределами ресурса: ответ 416. */
+        public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+        public long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * Разбирает заголовок Range для ресурса заданного размера.
+     * Поддерживается один диапазон: "bytes=a-b", "bytes=a-" и "bytes=-n".
+     *
+     * @return диапазон, {@link ByteRange#UNSATISFIABLE} или null, если заголовок нужно игнорировать
+     * (нет заголовка, несколько диапазонов, некорректный формат) и отдать ресурс целиком
+     */
+    public static ByteRange parseRange(String value, long size) {
+        if (value == null || !value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return ByteRange.UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, size - suffix), size - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+            if (start >= size) {
+                return ByteRange.UNSATISFIABLE;
+            }
+            if (end < start) {
+                return null;
+            }
+            return new ByteRange(start, Math.min(end, size - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Проверяет If-None-Match: "*" или список ETag через запятую.
+     * Сравнение слабое — префикс W/ у обеих сторон не учитывается.
+     *
+     * @return true, если один из ETag заголовка совпадает с текущим (ответ 304)
+     */
+    public static boolean matchesIfNoneMatch(String header, String etag) {
+        if (header == null || etag == null) {
+            return false;
+        }
+        if (header.trim().equals("*")) {
+            return true;
+        }
+        String opaque = opaqueTag(etag);
+        int pos = 0;
+        while (pos < header.length()) {
+            char c = header.charAt(pos);
+            if (c == ',' || Character.isWhitespace(c)) {
+                pos++;
+                continue;
+            }
+            if (header.startsWith("W/", pos)) {
+                pos += 2;
+            }
+            if (pos >= header.length() || header.charAt(pos) != '"') {
+                return false;
+            }
+            int close = header.indexOf('"', pos + 1);
+            if (close < 0) {
+                return false;
+            }
+            if (header.substring(pos, close + 1).equals(opaque)) {
+                return true;
+            }
+            pos = close + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Проверяет If-Range: докачка разрешена только при строгом совпадении ETag.
+     * Слабый ETag и HTTP-дата (время изменения архива не отдаётся) считаются несовпадением.
+     *
+     * @return true, если заголовка нет или он строго совпадает с текущим ETag
+     */
+    public static boolean matchesIfRange(String header, String etag) {
+        if (header == null) {
+            return true;
+        }
+        String value = header.trim();
+        return etag != null && value.startsWith("\"") && !etag.startsWith("W/") && value.equals(etag);
+    }
+
+    private static String opaqueTag(String etag) {
+        String value = etag.trim();
+        return value.startsWith("W/") ? value.substring(2) : value;
+    }
+}
@@ -1,14 +1,112 @@
 package com.company.figmaintegrationservice.utils;
 
 //import tools.jackson.databind.ObjectMapper;
+import com.company.figmaintegrationservice.dto.FigmaExportDto;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
+/**
+ * Сериализация JSON общим заранее настроенным {@link ObjectMapper}.
+ *
+ * Генераторы пишут прямо в переданный поток (например, в запись архива): поток не закрывается
+ * и не сбрасывается генератором, сброс остаётся за владельцем потока.
+ */
 public class JsonUtils {
 
-    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .configure(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM, false)
+            .configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+
+    private static final ObjectWriter prettyWriter = mapper.writerWithDefaultPrettyPrinter();
+    private static final ObjectWriter compactWriter = mapper.writer();
+    private static final SerializedString LINE_SEPARATOR = new SerializedString("\n");
+
+    /**
+     * Разметка выгрузки: с отступами, компактная в одну строку или NDJSON (запись на строку).
+     */
+    public enum JsonLayout {
+        PRETTY("json"),
+        COMPACT("json"),
+        NDJSON("ndjson");
+
+        private final String extension;
+
+        JsonLayout(String extension) {
+            this.extension = extension;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        /**
+         * Разметка по имени без учёта регистра; пустое или неизвестное имя — PRETTY.
+         */
+        public static JsonLayout of(String name) {
+            if (name != null) {
+                for (JsonLayout layout : values()) {
+                    if (layout.name().equalsIgnoreCase(name.trim())) {
+                        return layout;
+                    }
+                }
+            }
+            return PRETTY;
+        }
+    }
 
     public static byte[] toJsonBytes(Object obj) throws IOException {
-        return mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(obj);
+        return prettyWriter.writeValueAsBytes(obj);
+    }
+
+    /**
+     * Пишет выгрузку в поток без промежуточного массива байт.
+     *
+     * В NDJSON первая строка — заголовок {"type":"export",...} с версией и числом записей,
+     * далее по строке на каждый текст ("type":"text") и изображение ("type":"image").
+     */
+    public static void writeExport(FigmaExportDto export, OutputStream out, JsonLayout layout) throws IOException {
+        switch (layout) {
+            case PRETTY -> prettyWriter.writeValue(out, export);
+            case COMPACT -> compactWriter.writeValue(out, export);
+            case NDJSON -> writeNdjson(export, out);
+        }
+    }
+
+    private static void writeNdjson(FigmaExportDto export, OutputStream out) throws IOException {
+        List<?> texts = export.getTexts() != null ? export.getTexts() : List.of();
+        List<?> images = export.getImages() != null ? export.getImages() : List.of();
+
+        // Один генератор на весь поток; каждая строка сериализуется сразу в него, без промежуточных деревьев
+        try (JsonGenerator generator = mapper.createGenerator(out)) {
+            generator.setRootValueSeparator(LINE_SEPARATOR);
+            generator.writeStartObject();
+            generator.writeStringField("type", "export");
+            generator.writeStringField("version", export.getVersion());
+            generator.writeNumberField("texts", texts.size());
+            generator.writeNumberField("images", images.size());
+            generator.writeEndObject();
+            for (Object text : texts) {
+                mapper.writeValue(generator, new Line("text", text));
+            }
+            for (Object image : images) {
+                mapper.writeValue(generator, new Line("image", image));
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Строка NDJSON: поле type, за которым идут поля записи на том же уровне.
+     */
+    private record Line(String type, @JsonUnwrapped Object value) {
     }
 }
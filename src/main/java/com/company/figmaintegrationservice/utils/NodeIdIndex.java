@@ -0,0 +1,200 @@
+package com.company.figmaintegrationservice.utils;
+
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Индекс ID узла → узел документа с уровнем вложенности (0 — страница).
+ *
+ * Обычные ID Figma имеют вид "123:456" и упаковываются в long, поэтому основная таблица —
+ * открытая адресация на параллельных массивах без объектов-ключей и объектов-записей.
+ * ID другого вида (например, "I1:2;3:4" у узлов внутри инстансов) хранятся в обычной HashMap.
+ * Индекс строится один раз и далее только читается, поэтому безопасен для разделения между потоками.
+ */
+public final class NodeIdIndex {
+
+    private static final long EMPTY = -1L;
+
+    private final long[] keys;
+    private final FigmaNode[] nodes;
+    private final int[] levels;
+    private final int mask;
+    private final Map<String, Entry> other = new HashMap<>();
+    private int size;
+
+    private NodeIdIndex(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.nodes = new FigmaNode[capacity];
+        this.levels = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Строит индекс по всем узлам документа итеративным обходом.
+     */
+    public static NodeIdIndex build(FigmaFileResponse file) {
+        List<PageNode> pages = file != null && file.getDocument() != null ? file.getDocument().getChildren() : null;
+        if (pages == null) {
+            return new NodeIdIndex(0);
+        }
+
+        Deque<FigmaNode> stack = new ArrayDeque<>();
+        int count = 0;
+        for (PageNode page : pages) {
+            count++;
+            pushChildren(stack, page.getChildren());
+        }
+        while (!stack.isEmpty()) {
+            count++;
+            pushChildren(stack, stack.pop().getChildren());
+        }
+
+        NodeIdIndex index = new NodeIdIndex(count);
+        Deque<Entry> levelStack = new ArrayDeque<>();
+        for (PageNode page : pages) {
+            FigmaNode pageNode = new FigmaNode();
+            pageNode.setId(page.getId());
+            pageNode.setName(page.getName());
+            pageNode.setType(page.getType());
+            pageNode.setChildren(page.getChildren());
+            levelStack.push(new Entry(pageNode, 0));
+
+            while (!levelStack.isEmpty()) {
+                Entry entry = levelStack.pop();
+                index.put(entry.node().getId(), entry);
+                List<FigmaNode> children = entry.node().getChildren();
+                if (children != null) {
+                    for (FigmaNode child : children) {
+                        if (child != null) {
+                            levelStack.push(new Entry(child, entry.level() + 1));
+                        }
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return узел или null, если его нет в документе
+     */
+    public FigmaNode get(String id) {
+        long key = pack(id);
+        if (key == EMPTY) {
+            Entry entry = other.get(id);
+            return entry != null ? entry.node() : null;
+        }
+        int slot = find(key);
+        return keys[slot] == key ? nodes[slot] : null;
+    }
+
+    /**
+     * @return уровень узла от страницы (страница — 0) или -1, если узла нет в документе
+     */
+    public int level(String id) {
+        long key = pack(id);
+        if (key == EMPTY) {
+            Entry entry = other.get(id);
+            return entry != null ? entry.level() : -1;
+        }
+        int slot = find(key);
+        return keys[slot] == key ? levels[slot] : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void put(String id, Entry entry) {
+        if (id == null) {
+            return;
+        }
+        long key = pack(id);
+        if (key == EMPTY) {
+            if (other.putIfAbsent(id, entry) == null) {
+                size++;
+            }
+            return;
+        }
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            nodes[slot] = entry.node();
+            levels[slot] = entry.level();
+            size++;
+        }
+    }
+
+    private int find(long key) {
+        int slot = (int) mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static void pushChildren(Deque<FigmaNode> stack, List<FigmaNode> children) {
+        if (children != null) {
+            for (FigmaNode child : children) {
+                if (child != null) {
+                    stack.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Упаковывает ID вида "123:456" в long или возвращает EMPTY для ID другого вида.
+     */
+    static long pack(String id) {
+        if (id == null) {
+            return EMPTY;
+        }
+        int colon = id.indexOf(':');
+        if (colon <= 0 || colon == id.length() - 1 || colon > 10 || id.length() - colon - 1 > 10) {
+            return EMPTY;
+        }
+        long high = parse(id, 0, colon);
+        long low = parse(id, colon + 1, id.length());
+        if (high < 0 || low < 0 || high > Integer.MAX_VALUE || low > Integer.MAX_VALUE) {
+            return EMPTY;
+        }
+        return (high << 32) | low;
+    }
+
+    private static long parse(String id, int from, int to) {
+        // Ведущие нули дали бы два разных ID с одним ключом
+        if (to - from > 1 && id.charAt(from) == '0') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private record Entry(FigmaNode node, int level) {
+    }
+}
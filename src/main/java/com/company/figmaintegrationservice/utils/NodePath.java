@@ -0,0 +1,72 @@
+package com.company.figmaintegrationservice.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Путь узла в иерархии Figma ("Фрейм → Группа → Текст") в виде ссылки на родителя.
+ * Создание пути стоит одну ссылку; строка собирается только по запросу
+ * за время, пропорциональное её длине.
+ */
+public final class NodePath {
+
+    private static final String SEPARATOR = " → ";
+
+    private final NodePath parent;
+    private final String name;
+    private String materialized;
+
+    private NodePath(NodePath parent, String name, String materialized) {
+        this.parent = parent;
+        this.name = name;
+        this.materialized = materialized;
+    }
+
+    /**
+     * Корень пути с готовым префиксом (пустая строка — путь начинается с первого узла).
+     */
+    public static NodePath root(String prefix) {
+        return new NodePath(null, null, prefix != null ? prefix : "");
+    }
+
+    public NodePath child(String childName) {
+        return new NodePath(this, childName, null);
+    }
+
+    /**
+     * Собирает строку пути одним проходом по предкам до ближайшего уже собранного,
+     * без рекурсии по глубине. Запоминается только строка этого узла:
+     * промежуточные строки предков не создаются.
+     */
+    public String materialize() {
+        if (materialized != null) {
+            return materialized;
+        }
+        Deque<String> names = new ArrayDeque<>();
+        int length = 0;
+        NodePath current = this;
+        while (current.materialized == null) {
+            String segment = String.valueOf(current.name);
+            names.push(segment);
+            length += segment.length() + SEPARATOR.length();
+            current = current.parent;
+        }
+
+        String prefix = current.materialized;
+        StringBuilder builder = new StringBuilder(prefix.length() + length);
+        builder.append(prefix);
+        while (!names.isEmpty()) {
+            if (!builder.isEmpty()) {
+                builder.append(SEPARATOR);
+            }
+            builder.append(names.pop());
+        }
+        materialized = builder.toString();
+        return materialized;
+    }
+
+    @Override
+    public String toString() {
+        return materialize();
+    }
+}
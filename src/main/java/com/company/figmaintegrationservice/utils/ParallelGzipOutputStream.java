@@ -0,0 +1,143 @@
+package com.company.figmaintegrationservice.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Параллельное сжатие gzip по блокам (как pigz).
+ *
+ * Данные режутся на блоки фиксированного размера, каждый блок сжимается на исполнителе в отдельный
+ * член gzip, и члены пишутся в исходном порядке. Последовательность членов — корректный gzip-поток
+ * (RFC 1952), его читают gunzip, tar -xz и {@link java.util.zip.GZIPInputStream}.
+ * Одновременно сжимается не больше {@code maxInFlight} блоков: при заполнении запись ждёт самый ранний блок.
+ *
+ * {@link #flush()} передаёт дальше только уже сжатые блоки и не ждёт остальные, чтобы не терять параллельность;
+ * все данные выходят при {@link #finish()} или {@link #close()}.
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int level;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] buffer;
+    private int position;
+    private boolean written;
+    private boolean finished;
+
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int level, Executor executor, int maxInFlight) {
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.buffer = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == blockSize) {
+            submitBlock();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (position == blockSize) {
+                submitBlock();
+            }
+            int chunk = Math.min(len, blockSize - position);
+            System.arraycopy(b, off, buffer, position, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeCompleted();
+        out.flush();
+    }
+
+    /**
+     * Сжимает остаток, дожидается всех блоков и пишет их; нижележащий поток не закрывается.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (position > 0 || !written) {
+            // Пустой вход тоже даёт корректный gzip из одного пустого члена
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            out.write(join(pending.poll()));
+        }
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        while (pending.size() >= maxInFlight) {
+            out.write(join(pending.poll()));
+        }
+        byte[] block = buffer;
+        int length = position;
+        pending.add(CompletableFuture.supplyAsync(() -> compress(block, length), executor));
+        buffer = new byte[blockSize];
+        position = 0;
+        written = true;
+        writeCompleted();
+    }
+
+    private void writeCompleted() throws IOException {
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            out.write(join(pending.poll()));
+        }
+    }
+
+    private byte[] compress(byte[] block, int length) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 8192) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(block, 0, length);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        return member.toByteArray();
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException("Ошибка сжатия блока gzip", cause);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.company.figmaintegrationservice.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Потоковая запись tar (POSIX ustar) без буферизации записей.
+ *
+ * Имена, которые не помещаются в 100 байт заголовка или содержат не-ASCII символы (кириллица в именах
+ * страниц и фреймов), передаются расширенным заголовком PAX с полем path в UTF-8.
+ * Запись: {@link #putEntry}, данные через write, {@link #closeEntry}; в конце {@link #finish}.
+ */
+public final class TarWriter extends FilterOutputStream {
+
+    private static final int BLOCK = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    private static final byte[] ZEROS = new byte[BLOCK];
+
+    private long entryRemaining;
+    private long entryWritten;
+    private boolean entryOpen;
+
+    public TarWriter(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Пишет заголовок записи (и заголовок PAX при необходимости).
+     *
+     * @return число байт заголовков
+     */
+    public long putEntry(String name, long size, long modifiedMillis) throws IOException {
+        if (entryOpen) {
+            throw new IOException("Предыдущая запись tar не закрыта");
+        }
+        long mtime = modifiedMillis / 1000;
+        long headerBytes = 0;
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean pax = nameBytes.length > NAME_LENGTH || nameBytes.length != name.length() || size > MAX_OCTAL_SIZE;
+        if (pax) {
+            StringBuilder records = new StringBuilder();
+            records.append(paxRecord("path", name));
+            if (size > MAX_OCTAL_SIZE) {
+                records.append(paxRecord("size", Long.toString(size)));
+            }
+            byte[] paxData = records.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(header("PaxHeaders/" + asciiName(name, NAME_LENGTH - 11), paxData.length, mtime, (byte) 'x'));
+            out.write(paxData);
+            out.write(ZEROS, 0, pad(paxData.length));
+            headerBytes += BLOCK + paxData.length + pad(paxData.length);
+        }
+
+        out.write(header(pax ? asciiName(name, NAME_LENGTH) : name, Math.min(size, MAX_OCTAL_SIZE), mtime, (byte) '0'));
+        headerBytes += BLOCK;
+
+        entryRemaining = size;
+        entryWritten = 0;
+        entryOpen = true;
+        return headerBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkRemaining(1);
+        out.write(b);
+        entryWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkRemaining(len);
+        out.write(b, off, len);
+        entryWritten += len;
+    }
+
+    /**
+     * Дополняет данные записи до границы блока.
+     *
+     * @return число байт данных с выравниванием
+     */
+    public long closeEntry() throws IOException {
+        if (!entryOpen) {
+            return 0;
+        }
+        if (entryWritten != entryRemaining) {
+            throw new IOException("Запись tar: объявлено " + entryRemaining + " байт, записано " + entryWritten);
+        }
+        int padding = pad(entryWritten);
+        out.write(ZEROS, 0, padding);
+        entryOpen = false;
+        return entryWritten + padding;
+    }
+
+    /**
+     * Пишет два нулевых блока конца архива; нижележащий поток не закрывается.
+     */
+    public void finish() throws IOException {
+        if (entryOpen) {
+            throw new IOException("Последняя запись tar не закрыта");
+        }
+        out.write(ZEROS);
+        out.write(ZEROS);
+        out.flush();
+    }
+
+    private void checkRemaining(long len) throws IOException {
+        if (!entryOpen || entryWritten + len > entryRemaining) {
+            throw new IOException("Данные tar превышают объявленный размер записи");
+        }
+    }
+
+    private static byte[] header(String name, long size, long mtime, byte type) {
+        byte[] header = new byte[BLOCK];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, NAME_LENGTH));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, mtime);
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        // Контрольная сумма считается при поле суммы, заполненном пробелами
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+        header[155] = ' ';
+        return header;
+    }
+
+    /**
+     * Пишет число в восьмеричном виде с ведущими нулями и завершающим нулевым байтом.
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int width = length - 1;
+        int start = offset + width - digits.length();
+        Arrays.fill(header, offset, start, (byte) '0');
+        for (int i = 0; i < digits.length(); i++) {
+            header[start + i] = (byte) digits.charAt(i);
+        }
+        header[offset + width] = 0;
+    }
+
+    /**
+     * Запись PAX "длина ключ=значение\n", где длина учитывает саму себя.
+     */
+    private static String paxRecord(String key, String value) {
+        int payload = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    /**
+     * Запасное ASCII-имя для читателей без поддержки PAX: не-ASCII символы заменяются на '_', хвост сохраняется.
+     */
+    private static String asciiName(String name, int maxLength) {
+        StringBuilder ascii = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            ascii.append(c >= 0x20 && c < 0x7F ? c : '_');
+        }
+        return ascii.length() <= maxLength ? ascii.toString() : ascii.substring(ascii.length() - maxLength);
+    }
+
+    private static int pad(long length) {
+        int remainder = (int) (length % BLOCK);
+        return remainder == 0 ? 0 : BLOCK - remainder;
+    }
+}
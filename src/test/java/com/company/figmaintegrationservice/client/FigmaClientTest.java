@@ -0,0 +1,215 @@
+package com.company.figmaintegrationservice.client;
+
+import com.company.figmaintegrationservice.client.dto.DocumentNode;
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.company.figmaintegrationservice.service.impl.FigmaFileCacheService;
+import com.company.figmaintegrationservice.service.impl.FigmaSnapshotStore;
+import com.company.figmaintegrationservice.service.impl.MetricsService;
+import com.company.figmaintegrationservice.service.impl.RateLimitService;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Загрузка тяжёлых узлов по частям на локальной заглушке /files и /nodes.
+ * Ответы больше лимита в 1 МБ заглушка отдаёт для заданных пар (ids, depth).
+ */
+class FigmaClientTest {
+
+    private static final String METADATA = """
+            {"version":"1","document":{"children":[{"id":"0:1","name":"Page","type":"CANVAS"}]}}""";
+
+    /** Ответы /nodes по ключу "ids@depth"; пара из oversized отдаётся больше лимита. */
+    private final Map<String, String> nodes = new HashMap<>();
+    private final Set<String> oversized = ConcurrentHashMap.newKeySet();
+
+    private HttpServer stub;
+    private WebClient webClient;
+    private ObjectMapper mapper;
+    private RateLimitService limiter;
+    private NodeRequestPlanner planner;
+    private FigmaClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/files", this::handle);
+        stub.start();
+
+        planner = new NodeRequestPlanner();
+        ReflectionTestUtils.setField(planner, "batchSize", 3);
+        ReflectionTestUtils.setField(planner, "maxPagesPerRequest", 25);
+        ReflectionTestUtils.setField(planner, "targetResponseMb", 16L);
+        ReflectionTestUtils.setField(planner, "targetNodesPerRequest", 50_000L);
+        ReflectionTestUtils.setField(planner, "framesPerRequest", 5);
+        ReflectionTestUtils.setField(planner, "maxResponseMb", 1L);
+        ReflectionTestUtils.setField(planner, "maxIdsLength", 2000);
+        ReflectionTestUtils.setField(planner, "maxIdsPerRequest", 50);
+
+        limiter = new RateLimitService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(limiter, "requestsPerSecond", 50.0);
+        ReflectionTestUtils.setField(limiter, "minRequestsPerSecond", 1.0);
+        ReflectionTestUtils.setField(limiter, "maxRequestsPerSecond", 50.0);
+        ReflectionTestUtils.setField(limiter, "additiveIncrease", 1.0);
+        ReflectionTestUtils.setField(limiter, "decreaseFactor", 0.5);
+        ReflectionTestUtils.setField(limiter, "globalMaxRequestsPerSecond", 100.0);
+        ReflectionTestUtils.setField(limiter, "imageGlobalMaxRequestsPerSecond", 100.0);
+        ReflectionTestUtils.setField(limiter, "bucketIdleMinutes", 30L);
+        limiter.afterPropertiesSet();
+
+        webClient = WebClient.builder()
+                .baseUrl("http://127.0.0.1:" + stub.getAddress().getPort())
+                .build();
+        mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        client = client(null);
+
+        // Страница и её единственный фрейм не помещаются целиком, дети фрейма — помещаются
+        oversized.add("0:1@3");
+        nodes.put("0:1@1", """
+                {"nodes":{"0:1":{"document":{"id":"0:1","name":"Page","type":"CANVAS",
+                "children":[{"id":"1:1","name":"Frame","type":"FRAME"}]}}}}""");
+        oversized.add("1:1@2");
+        nodes.put("1:1@1", """
+                {"nodes":{"1:1":{"document":{"id":"1:1","name":"Frame","type":"FRAME",
+                "children":[{"id":"2:1","type":"GROUP"},{"id":"2:2","type":"GROUP"}]}}}}""");
+        nodes.put("2:1,2:2@1", """
+                {"nodes":{
+                "2:1":{"document":{"id":"2:1","type":"GROUP","children":[{"id":"3:1","type":"TEXT","characters":"a"}]}},
+                "2:2":{"document":{"id":"2:2","type":"GROUP","children":[{"id":"3:2","type":"TEXT","characters":"b"}]}}}}""");
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void oversizedSingleFrameIsLoadedThroughItsChildren() {
+        FigmaFileResponse file = client.getFullFileSmart("token", "key").block(Duration.ofSeconds(10));
+
+        PageNode page = file.getDocument().getChildren().get(0);
+        FigmaNode frame = page.getChildren().get(0);
+        assertThat(frame.getId()).isEqualTo("1:1");
+        assertThat(frame.getChildren()).extracting(FigmaNode::getId).containsExactly("2:1", "2:2");
+        assertThat(frame.getChildren())
+                .flatExtracting(FigmaNode::getChildren)
+                .extracting(FigmaNode::getCharacters)
+                .containsExactly("a", "b");
+    }
+
+    @Test
+    void frameTooLargeEvenAtDepthOneIsNamedInError() {
+        nodes.remove("1:1@1");
+        oversized.add("1:1@1");
+
+        assertThatThrownBy(() -> client.getFullFileSmart("token", "key").block(Duration.ofSeconds(10)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("1:1");
+    }
+
+    @Test
+    void nodesFromCacheAndApiKeepRequestOrder() {
+        FigmaFileCacheService cacheService = new FigmaFileCacheService(new CaffeineCacheManager("figmaFiles"),
+                new MetricsService(new SimpleMeterRegistry()), new FigmaSnapshotStore());
+        ReflectionTestUtils.setField(cacheService, "revalidateAfterMinutes", 10L);
+        cacheService.getOrCompute("key", () -> Mono.just(cachedDocument())).block();
+
+        nodes.put("9:1,9:2@1", """
+                {"nodes":{"9:1":{"document":{"id":"9:1","type":"TEXT"}},"9:2":{"document":{"id":"9:2","type":"TEXT"}}}}""");
+
+        // 2:1 и 1:1 помещаются в глубину кэшированного документа, 9:1 и 9:2 в нём отсутствуют
+        List<FigmaNode> result = client(cacheService)
+                .getNodesChunked("token", "key", List.of("2:1", "9:1", "1:1", "9:2"), 1)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(result).extracting(FigmaNode::getId).containsExactly("2:1", "9:1", "1:1", "9:2");
+    }
+
+    private FigmaClient client(FigmaFileCacheService cacheService) {
+        FigmaClient figmaClient = new FigmaClient(webClient, mapper, cacheService, limiter, null, planner);
+        ReflectionTestUtils.setField(figmaClient, "concurrency", 2);
+        ReflectionTestUtils.setField(figmaClient, "depth", 3);
+        ReflectionTestUtils.setField(figmaClient, "requestTimeoutSeconds", 10L);
+        return figmaClient;
+    }
+
+    private static FigmaFileResponse cachedDocument() {
+        FigmaNode group = new FigmaNode();
+        group.setId("2:1");
+        FigmaNode frame = new FigmaNode();
+        frame.setId("1:1");
+        frame.setChildren(List.of(group));
+        return new FigmaFileResponse("1",
+                new DocumentNode(List.of(new PageNode("0:1", "Page", "CANVAS", List.of(frame)))));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+
+        String body;
+        if (path.equals("/files/key")) {
+            body = METADATA;
+        } else {
+            String key = query.get("ids") + "@" + query.get("depth");
+            body = oversized.contains(key) ? oversizedBody() : nodes.get(key);
+        }
+
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        } catch (IOException e) {
+            // Клиент обрывает соединение, как только ответ превысил лимит
+        }
+    }
+
+    private static String oversizedBody() {
+        return "{\"nodes\":{}" + " ".repeat(2 * 1024 * 1024) + "}";
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,97 @@
+package com.company.figmaintegrationservice.client;
+
+import com.company.figmaintegrationservice.dto.FigmaPageExportDto;
+import com.company.figmaintegrationservice.mapper.FigmaMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FigmaNodeStreamParserTest {
+
+    private static final String RESPONSE = """
+            {"name":"file","nodes":{
+              "1:1":{"document":{"id":"1:1","name":"Page A","type":"CANVAS","children":[
+                {"id":"2:1","name":"Frame","type":"FRAME","fills":[{"type":"SOLID","color":{"r":1}}],"children":[
+                  {"id":"3:1","name":"Title","type":"TEXT","characters":"Привет"},
+                  {"id":"3:2","name":"Pic","type":"RECTANGLE","hasImageFill":true,"imageUrl":"http://img"},
+                  {"id":"3:3","name":"Group","type":"GROUP","children":[
+                    {"id":"4:1","name":"Deep","type":"TEXT","characters":"deep"}]}]}]},
+                "components":{"c":{"key":"k","name":"Button"}},"styles":{}},
+              "9:9":null,
+              "5:5":{"document":{"id":"5:5","name":"Page B","type":"CANVAS","children":[
+                {"id":"6:1","name":"Note","type":"TEXT","characters":"b"}]}}}}
+            """;
+
+    private final FigmaMapper figmaMapper = Mappers.getMapper(FigmaMapper.class);
+
+    @Test
+    void extractsTextsAndImagesRegardlessOfChunkBoundaries() throws IOException {
+        byte[] bytes = RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+        for (int chunk : new int[]{1, 7, 64, bytes.length}) {
+            List<FigmaPageExportDto> pages = parse(bytes, chunk);
+
+            assertThat(pages).extracting(FigmaPageExportDto::getPageId).containsExactly("1:1", "5:5");
+
+            FigmaPageExportDto first = pages.get(0);
+            assertThat(first.getVersion()).isEqualTo("v1");
+            assertThat(first.getPageName()).isEqualTo("Page A");
+            assertThat(first.getTexts()).extracting(t -> t.getNodeId() + "|" + t.getPath() + "|" + t.getText())
+                    .containsExactly("3:1|Frame → Title|Привет", "4:1|Frame → Group → Deep|deep");
+            assertThat(first.getImages()).singleElement()
+                    .satisfies(image -> {
+                        assertThat(image.getNodeId()).isEqualTo("3:2");
+                        assertThat(image.getImageUrl()).isEqualTo("http://img");
+                        assertThat(image.getPageName()).isEqualTo("Page A");
+                    });
+
+            assertThat(pages.get(1).getTexts()).extracting(t -> t.getPath()).containsExactly("Note");
+        }
+    }
+
+    @Test
+    void resolvesImageFillsEvenWhenFillsFollowChildren() throws IOException {
+        String response = """
+                {"nodes":{"1:1":{"document":{"id":"1:1","name":"Page","type":"CANVAS","children":[
+                  {"id":"2:1","name":"Hero","type":"FRAME","children":[
+                    {"id":"3:1","name":"Photo","type":"RECTANGLE","fills":[{"type":"IMAGE","imageRef":"ref-a","scaleMode":"FILL"}]},
+                    {"id":"3:2","name":"Hidden","type":"RECTANGLE","fills":[{"type":"IMAGE","visible":false,"imageRef":"ref-x"}]}],
+                   "fills":[{"type":"SOLID","color":{"r":1}},{"type":"IMAGE","imageRef":"ref-bg"}]}]}}}}
+                """;
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+
+        for (int chunk : new int[]{1, 13, bytes.length}) {
+            // Фон фрейма идёт раньше дочерней картинки — как при рекурсивном обходе
+            assertThat(parse(bytes, chunk).get(0).getImages())
+                    .extracting(image -> image.getNodeId() + "|" + image.getImageRef())
+                    .containsExactly("2:1|ref-bg", "3:1|ref-a");
+        }
+    }
+
+    @Test
+    void failsOnTruncatedResponse() throws IOException {
+        byte[] bytes = RESPONSE.getBytes(StandardCharsets.UTF_8);
+        FigmaNodeStreamParser parser = new FigmaNodeStreamParser(new JsonFactory(), figmaMapper, "v1");
+        parser.feed(bytes, 0, bytes.length / 2);
+
+        assertThatThrownBy(parser::finish).isInstanceOf(IOException.class);
+    }
+
+    private List<FigmaPageExportDto> parse(byte[] bytes, int chunk) throws IOException {
+        FigmaNodeStreamParser parser = new FigmaNodeStreamParser(new JsonFactory(), figmaMapper, "v1");
+        List<FigmaPageExportDto> pages = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunk) {
+            pages.addAll(parser.feed(bytes, offset, Math.min(chunk, bytes.length - offset)));
+        }
+        pages.addAll(parser.finish());
+        return pages;
+    }
+}
@@ -0,0 +1,92 @@
+package com.company.figmaintegrationservice.client;
+
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NodeRequestPlannerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private NodeRequestPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        planner = new NodeRequestPlanner();
+        ReflectionTestUtils.setField(planner, "batchSize", 3);
+        ReflectionTestUtils.setField(planner, "maxPagesPerRequest", 25);
+        ReflectionTestUtils.setField(planner, "targetResponseMb", 16L);
+        ReflectionTestUtils.setField(planner, "targetNodesPerRequest", 50_000L);
+        ReflectionTestUtils.setField(planner, "maxResponseMb", 100L);
+        ReflectionTestUtils.setField(planner, "maxIdsLength", 2000);
+        ReflectionTestUtils.setField(planner, "maxIdsPerRequest", 50);
+    }
+
+    @Test
+    void unknownPagesArePackedByBatchSize() {
+        List<List<PageNode>> batches = planner.plan("file", pages(7));
+
+        assertThat(batches).extracting(List::size).containsExactly(3, 3, 1);
+    }
+
+    @Test
+    void lightPagesArePackedIntoOneRequest() {
+        List<PageNode> pages = pages(20);
+        for (PageNode page : pages) {
+            planner.record("file", page.getId(), 100_000, 500);
+        }
+
+        assertThat(planner.plan("file", pages)).extracting(List::size).containsExactly(20);
+    }
+
+    @Test
+    void heavyPagesAreRequestedAloneInOrder() {
+        List<PageNode> pages = pages(5);
+        for (PageNode page : pages) {
+            planner.record("file", page.getId(), MB, 1_000);
+        }
+        planner.record("file", "1:2", 90 * MB, 400_000);
+        planner.markHeavy("file", "1:3");
+
+        List<List<PageNode>> batches = planner.plan("file", pages);
+
+        assertThat(batches).extracting(batch -> batch.stream().map(PageNode::getId).toList())
+                .containsExactly(List.of("1:0", "1:1"), List.of("1:2"), List.of("1:3"), List.of("1:4"));
+        assertThat(planner.isHeavy("file", "1:2")).isTrue();
+        assertThat(planner.isHeavy("file", "1:4")).isFalse();
+    }
+
+    @Test
+    void selectedIdsAreChunkedByUrlLengthCountAndObservedSize() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ids.add("12345:" + i);
+        }
+
+        List<List<String>> chunks = planner.chunkIds("file", ids);
+
+        assertThat(chunks).allSatisfy(chunk -> {
+            assertThat(chunk).hasSizeLessThanOrEqualTo(50);
+            assertThat(String.join("%2C", chunk).length()).isLessThanOrEqualTo(2000);
+        });
+        assertThat(chunks.stream().flatMap(List::stream).toList()).containsExactlyElementsOf(ids);
+
+        planner.record("file", "12345:0", 10 * MB, 100_000);
+        planner.record("file", "12345:1", 10 * MB, 100_000);
+        assertThat(planner.chunkIds("file", ids.subList(0, 3))).extracting(List::size).containsExactly(1, 2);
+    }
+
+    private static List<PageNode> pages(int count) {
+        List<PageNode> pages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            pages.add(new PageNode("1:" + i, "Page " + i, "CANVAS", null));
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,55 @@
+package com.company.figmaintegrationservice.config;
+
+import com.company.figmaintegrationservice.service.impl.MetricsService;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MeteredConnectionManagerTest {
+
+    @Test
+    void reusesConnectionAndReportsRouteMetrics() throws Exception {
+        Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clients.add(exchange.getRemoteAddress());
+            byte[] body = "image".getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        String route = "127.0.0.1:" + server.getAddress().getPort();
+        try (MeteredConnectionManager manager = new MeteredConnectionManager(new MetricsService(meterRegistry));
+             CloseableHttpClient client = HttpClients.custom().setConnectionManager(manager).build()) {
+            for (int i = 0; i < 3; i++) {
+                String body = client.execute(new HttpGet("http://" + route + "/img/" + i),
+                        response -> EntityUtils.toString(response.getEntity()));
+                assertThat(body).isEqualTo("image");
+            }
+
+            // Все запросы прошли по одному keep-alive соединению, оно вернулось в пул
+            assertThat(clients).hasSize(1);
+            assertThat(meterRegistry.get("figma.http.pool.lease.wait").tag("route", route).timer().count()).isEqualTo(3);
+            assertThat(meterRegistry.get("figma.http.pool.connections").tag("route", route).tag("state", "leased")
+                    .gauge().value()).isZero();
+            assertThat(meterRegistry.get("figma.http.pool.connections").tag("route", route).tag("state", "available")
+                    .gauge().value()).isEqualTo(1);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
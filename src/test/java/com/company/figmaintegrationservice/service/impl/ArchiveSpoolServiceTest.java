@@ -0,0 +1,94 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.utils.HttpUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveSpoolServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void buildsOnceAndServesRanges() throws Exception {
+        ArchiveSpoolService service = new ArchiveSpoolService();
+        ReflectionTestUtils.setField(service, "spoolDirectory", directory.toString());
+        service.afterPropertiesSet();
+
+        AtomicInteger builds = new AtomicInteger();
+        ArchiveSpoolService.ArchiveWriter writer = out -> {
+            builds.incrementAndGet();
+            out.write("0123456789".getBytes(StandardCharsets.US_ASCII));
+        };
+
+        ArchiveSpoolService.SpooledArchive archive = service.getOrBuild("task", writer);
+        assertThat(service.getOrBuild("task", writer)).isEqualTo(archive);
+        assertThat(builds).hasValue(1);
+        assertThat(archive.size()).isEqualTo(10);
+
+        HttpUtils.ByteRange range = HttpUtils.parseRange("bytes=7-", archive.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.transfer(archive, range.start(), range.length(), out);
+        assertThat(out.toString(StandardCharsets.US_ASCII)).isEqualTo("789");
+
+        assertThat(HttpUtils.parseRange("bytes=-4", 10)).isEqualTo(new HttpUtils.ByteRange(6, 9));
+        assertThat(HttpUtils.parseRange("bytes=10-", 10)).isSameAs(HttpUtils.ByteRange.UNSATISFIABLE);
+        assertThat(HttpUtils.parseRange("bytes=0-1,4-5", 10)).isNull();
+
+        service.delete("task");
+        assertThat(Files.exists(archive.file())).isFalse();
+    }
+
+    @Test
+    void leftoverFilesOfAnyFormatAreRemovedOnStart() throws Exception {
+        for (String name : new String[]{"old.zip", "old.archive", "old.part", "keep.txt"}) {
+            Files.writeString(directory.resolve(name), "x");
+        }
+
+        ArchiveSpoolService service = new ArchiveSpoolService();
+        ReflectionTestUtils.setField(service, "spoolDirectory", directory.toString());
+        service.afterPropertiesSet();
+
+        assertThat(directory.toFile().list()).containsExactly("keep.txt");
+        assertThat(service.getOrBuild("task", out -> out.write(1)).file().getFileName().toString())
+                .isEqualTo("task.archive");
+    }
+
+    @Test
+    void conditionalHeadersCompareEtags() {
+        String etag = "\"task-a-1\"";
+
+        assertThat(HttpUtils.matchesIfNoneMatch("\"other\", W/\"task-a-1\"", etag)).isTrue();
+        assertThat(HttpUtils.matchesIfNoneMatch("*", etag)).isTrue();
+        assertThat(HttpUtils.matchesIfNoneMatch("\"a,b\", \"other\"", etag)).isFalse();
+        assertThat(HttpUtils.matchesIfNoneMatch(null, etag)).isFalse();
+
+        assertThat(HttpUtils.matchesIfRange(null, etag)).isTrue();
+        assertThat(HttpUtils.matchesIfRange(etag, etag)).isTrue();
+        assertThat(HttpUtils.matchesIfRange("W/" + etag, etag)).isFalse();
+        assertThat(HttpUtils.matchesIfRange("Wed, 21 Oct 2026 07:28:00 GMT", etag)).isFalse();
+    }
+
+    @Test
+    void transferFailsWhenFileIsShorterThanDeclared() throws Exception {
+        ArchiveSpoolService service = new ArchiveSpoolService();
+        ReflectionTestUtils.setField(service, "spoolDirectory", directory.toString());
+        service.afterPropertiesSet();
+        ArchiveSpoolService.SpooledArchive archive = service.getOrBuild("task",
+                out -> out.write("0123456789".getBytes(StandardCharsets.US_ASCII)));
+
+        assertThatThrownBy(() -> service.transfer(archive, 5, 10, new ByteArrayOutputStream()))
+                .isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,202 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveWriterStageTest {
+
+    @Test
+    void writesOutOfOrderCompletionsInSequenceOrder() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ZipArchiveService zipArchiveService = new ZipArchiveService();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int total = 200;
+
+        try (ZipOutputStream zip = zipArchiveService.createZipArchive(out);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            MetricsService metricsService = new MetricsService(meterRegistry);
+            ArchiveWriterStage writer = new ArchiveWriterStage(
+                    new ZipEntryWriter(zip, zipArchiveService, metricsService), metricsService, 4, 1024);
+            writer.write("figma.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+            for (int i = total - 1; i >= 0; i--) {
+                int number = i;
+                executor.submit(() -> {
+                    writer.reserve(number);
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                    // Каждое пятое изображение пустое и пропускается
+                    writer.complete(number, List.of("images/" + number + ".png"), number % 5 == 0 ? null : png(number));
+                    return null;
+                });
+            }
+            writer.drain(total);
+            zipArchiveService.finishZip(zip);
+        }
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+                // ZipInputStream сверяет CRC при чтении записи до конца
+                byte[] data = in.readAllBytes();
+                if (entry.getName().startsWith("images/")) {
+                    assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+                    assertThat(data).isEqualTo(png(Integer.parseInt(entry.getName().replaceAll("\\D", ""))).data());
+                } else {
+                    assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+                }
+            }
+        }
+
+        List<String> expected = new ArrayList<>(List.of("figma.json"));
+        for (int i = 0; i < total; i++) {
+            if (i % 5 != 0) {
+                expected.add("images/" + i + ".png");
+            }
+        }
+        assertThat(names).containsExactlyElementsOf(expected);
+        assertThat(meterRegistry.get("figma.archive.zip.queue.depth").gauge().value()).isZero();
+    }
+
+    @Test
+    void interruptedDrainReleasesWaitingDownloaders() throws Exception {
+        ZipArchiveService zipArchiveService = new ZipArchiveService();
+        MetricsService metricsService = new MetricsService(new SimpleMeterRegistry());
+
+        try (ZipOutputStream zip = zipArchiveService.createZipArchive(new ByteArrayOutputStream());
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            ArchiveWriterStage writer = new ArchiveWriterStage(
+                    new ZipEntryWriter(zip, zipArchiveService, metricsService), metricsService, 1, 1024);
+
+            Future<?> drain = executor.submit(() -> {
+                writer.drain(2);
+                return null;
+            });
+            // Номер 1 вне окна, пока не записан номер 0
+            Future<?> waiting = executor.submit(() -> {
+                writer.reserve(1);
+                return null;
+            });
+            Thread.sleep(100);
+            drain.cancel(true);
+
+            assertThatThrownBy(() -> waiting.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void writesEachBlobOnceAndMapsEntriesInManifest() throws Exception {
+        ZipArchiveService zipArchiveService = new ZipArchiveService();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArchiveWriterStage writer;
+
+        try (ZipOutputStream zip = zipArchiveService.createZipArchive(out)) {
+            MetricsService metricsService = new MetricsService(new SimpleMeterRegistry());
+            writer = new ArchiveWriterStage(
+                    new ZipEntryWriter(zip, zipArchiveService, metricsService), metricsService, 4, 1024);
+            // Разные URL с одинаковым содержимым
+            writer.complete(0, List.of("Page/a.png", "Page/b.png"), png(1), "blobs/one.png");
+            writer.complete(1, List.of("Page/c.png"), png(1), "blobs/one.png");
+            writer.complete(2, List.of("Page/d.png"), png(2), "blobs/two.png");
+            writer.drain(3);
+            zipArchiveService.finishZip(zip);
+        }
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        assertThat(names).containsExactly("blobs/one.png", "blobs/two.png");
+        assertThat(writer.getManifest()).containsExactly(
+                Map.entry("Page/a.png", "blobs/one.png"),
+                Map.entry("Page/b.png", "blobs/one.png"),
+                Map.entry("Page/c.png", "blobs/one.png"),
+                Map.entry("Page/d.png", "blobs/two.png"));
+    }
+
+    @Test
+    void writesTarGzReadableAsSingleGzipStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String longName = "Страница/" + "Фрейм ".repeat(20) + "/logo.png";
+        byte[] large = new byte[300_000];
+        ThreadLocalRandom.current().nextBytes(large);
+
+        // Маленькие блоки, чтобы архив состоял из нескольких членов gzip
+        try (ArchiveEntryWriter archive = new TarGzEntryWriter(out, 64 * 1024, 6, ForkJoinPool.commonPool(), 4)) {
+            ArchiveWriterStage writer = new ArchiveWriterStage(
+                    archive, new MetricsService(new SimpleMeterRegistry()), 4, 1024);
+            writer.write("figma.json", "{}".getBytes(StandardCharsets.UTF_8));
+            writer.complete(0, List.of(longName), png(1));
+            writer.complete(1, List.of("images/large.bin"), new DownloadedImage(large, 0));
+            writer.drain(2);
+            archive.finish();
+        }
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+            String paxPath = null;
+            byte[] header = new byte[512];
+            while (true) {
+                in.readFully(header);
+                if (header[0] == 0) {
+                    break;
+                }
+                int size = Integer.parseInt(new String(header, 124, 11, StandardCharsets.US_ASCII), 8);
+                byte[] data = new byte[size];
+                in.readFully(data);
+                in.skipNBytes((512 - size % 512) % 512);
+                if (header[156] == 'x') {
+                    String record = new String(data, StandardCharsets.UTF_8);
+                    paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+                } else {
+                    String name = new String(header, 0, 100, StandardCharsets.UTF_8).replace("\0", "");
+                    entries.put(paxPath != null ? paxPath : name, data);
+                    paxPath = null;
+                }
+            }
+        }
+
+        assertThat(entries.keySet()).containsExactly("figma.json", longName, "images/large.bin");
+        assertThat(entries.get(longName)).isEqualTo(png(1).data());
+        assertThat(entries.get("images/large.bin")).isEqualTo(large);
+    }
+
+    private static DownloadedImage png(int number) {
+        byte[] data = ("\u0089PNG\r\n\u001a\nimg" + number).getBytes(StandardCharsets.ISO_8859_1);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return new DownloadedImage(data, crc.getValue());
+    }
+}
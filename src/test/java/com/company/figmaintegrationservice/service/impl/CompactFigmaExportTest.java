@@ -0,0 +1,45 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.dto.FigmaExportDto;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactFigmaExportTest {
+
+    @Test
+    void restoresRecordsExactly() {
+        List<FigmaTextDto> texts = List.of(
+                new FigmaTextDto("Page", "Frame", "Title", "1:2", "Hello", "Frame → Title"),
+                new FigmaTextDto("Page", null, "a → b", "1:3", "Hi", "Frame → Group → a → b"),
+                new FigmaTextDto(null, null, null, null, null, null),
+                new FigmaTextDto("Page", "Frame", "", "1:4", "", ""));
+        List<FigmaImageDto> images = List.of(
+                new FigmaImageDto("Page", "Frame", "Pic", "2:1", "https://img/1", "ref1", "Frame → Pic", null));
+
+        FigmaExportDto restored = CompactFigmaExport.of(new FigmaExportDto("42", texts, images)).toExportDto();
+
+        assertThat(restored.getVersion()).isEqualTo("42");
+        assertThat(restored.getTexts()).usingRecursiveFieldByFieldElementComparator().containsExactlyElementsOf(texts);
+        assertThat(restored.getImages()).usingRecursiveFieldByFieldElementComparator().containsExactlyElementsOf(images);
+    }
+
+    @Test
+    void storesRepeatedStringsOnce() {
+        List<FigmaTextDto> texts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            texts.add(new FigmaTextDto("Page", "Frame", "Label", "1:" + i, "OK", "Frame → Group → Label"));
+        }
+
+        CompactFigmaExport compact = CompactFigmaExport.of(new FigmaExportDto("1", texts, List.of()));
+
+        assertThat(compact.getTextCount()).isEqualTo(1000);
+        // Page, Frame, Label, OK и префикс пути "Frame → Group"
+        assertThat(compact.getDictionarySize()).isEqualTo(5);
+    }
+}
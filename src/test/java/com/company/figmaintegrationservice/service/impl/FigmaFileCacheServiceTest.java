@@ -0,0 +1,176 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.DocumentNode;
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.company.figmaintegrationservice.utils.NodeIdIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FigmaFileCacheServiceTest {
+
+    private final AtomicInteger fullLoads = new AtomicInteger();
+    private final AtomicInteger versionChecks = new AtomicInteger();
+    private SimpleMeterRegistry meterRegistry;
+    private FigmaFileCacheService cacheService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cacheService = new FigmaFileCacheService(new CaffeineCacheManager("figmaFiles"),
+                new MetricsService(meterRegistry), new FigmaSnapshotStore());
+        // Каждая запись сразу считается устаревшей
+        ReflectionTestUtils.setField(cacheService, "revalidateAfterMinutes", 0L);
+    }
+
+    @Test
+    void staleEntryWithSameVersionIsKept() {
+        FigmaFileResponse first = load("v1");
+        FigmaFileResponse second = load("v1");
+
+        assertThat(second).isSameAs(first);
+        assertThat(fullLoads).hasValue(1);
+        assertThat(versionChecks).hasValue(1);
+    }
+
+    @Test
+    void changedVersionReloadsDocument() {
+        FigmaFileResponse first = load("v1");
+        FigmaFileResponse second = load("v2");
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getVersion()).isEqualTo("v2");
+        assertThat(fullLoads).hasValue(2);
+    }
+
+    @Test
+    void failedVersionCheckServesCachedDocument() {
+        FigmaFileResponse first = load("v1");
+
+        FigmaFileResponse second = cacheService.getOrCompute("file",
+                () -> Mono.error(new IllegalStateException("503")),
+                () -> Mono.fromSupplier(() -> document("v1"))).block();
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() {
+        Mono<FigmaFileResponse> slowLoad = Mono.fromSupplier(() -> {
+                    fullLoads.incrementAndGet();
+                    return document("v1");
+                })
+                .delayElement(Duration.ofMillis(200));
+
+        List<FigmaFileResponse> results = Flux.range(0, 5)
+                .flatMap(i -> cacheService.getOrCompute("file", () -> slowLoad))
+                .collectList()
+                .block();
+
+        assertThat(results).hasSize(5).allMatch(result -> result == results.get(0));
+        assertThat(fullLoads).hasValue(1);
+        assertThat(meterRegistry.get("figma.file.loads").tag("type", "originating").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("figma.file.loads").tag("type", "coalesced").counter().count()).isEqualTo(4.0);
+    }
+
+    @Test
+    void failedLoadIsNotShared() {
+        AtomicInteger attempts = new AtomicInteger();
+        Mono<FigmaFileResponse> flaky = Mono.fromSupplier(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("500");
+            }
+            return document("v1");
+        });
+
+        assertThat(cacheService.getOrCompute("file", () -> flaky).onErrorResume(e -> Mono.empty()).block()).isNull();
+        assertThat(cacheService.getOrCompute("file", () -> flaky).block()).isNotNull();
+        assertThat(attempts).hasValue(2);
+    }
+
+    @Test
+    void joinerLoadsWithOwnTokenWhenSharedLoadIsForbidden() {
+        Mono<FigmaFileResponse> forbidden = Mono.<FigmaFileResponse>error(
+                        WebClientResponseException.create(403, "Forbidden", null, null, null))
+                .delaySubscription(Duration.ofMillis(100));
+        Mono<FigmaFileResponse> allowed = Mono.fromSupplier(() -> {
+            fullLoads.incrementAndGet();
+            return document("v1");
+        });
+
+        Mono<FigmaFileResponse> originator = cacheService.getOrCompute("file", () -> forbidden);
+        Mono<FigmaFileResponse> joiner = cacheService.getOrCompute("file", () -> allowed);
+
+        assertThatThrownBy(originator::block).isInstanceOf(WebClientResponseException.Forbidden.class);
+        assertThat(joiner.block()).isNotNull();
+        assertThat(fullLoads).hasValue(1);
+    }
+
+    @Test
+    void joinerSharesFileError() {
+        Mono<FigmaFileResponse> notFound = Mono.<FigmaFileResponse>error(
+                        WebClientResponseException.create(404, "Not Found", null, null, null))
+                .delaySubscription(Duration.ofMillis(100));
+
+        Mono<FigmaFileResponse> originator = cacheService.getOrCompute("file", () -> notFound);
+        Mono<FigmaFileResponse> joiner = cacheService.getOrCompute("file",
+                () -> Mono.fromSupplier(() -> document("v1")));
+
+        assertThatThrownBy(originator::block).isInstanceOf(WebClientResponseException.NotFound.class);
+        assertThatThrownBy(joiner::block).isInstanceOf(WebClientResponseException.NotFound.class);
+    }
+
+    @Test
+    void nodeIndexIsServedOnlyForCurrentVersion() {
+        FigmaNode frame = new FigmaNode();
+        frame.setId("12:34");
+        FigmaNode instanceChild = new FigmaNode();
+        instanceChild.setId("I12:34;5:6");
+        frame.setChildren(List.of(instanceChild));
+        FigmaFileResponse file = new FigmaFileResponse("v1",
+                new DocumentNode(List.of(new PageNode("0:1", "Page", "CANVAS", List.of(frame)))));
+        cacheService.getOrCompute("file", () -> Mono.just(file)).block();
+
+        NodeIdIndex index = cacheService.getNodeIndexIfCurrent("file", () -> Mono.just("v1")).block();
+        assertThat(index).isNotNull();
+        assertThat(index.get("12:34")).isSameAs(frame);
+        assertThat(index.level("0:1")).isZero();
+        assertThat(index.level("12:34")).isEqualTo(1);
+        assertThat(index.level("I12:34;5:6")).isEqualTo(2);
+        assertThat(index.get("99:1")).isNull();
+
+        // Продление записи сохраняет построенный индекс
+        assertThat(cacheService.getNodeIndexIfCurrent("file", () -> Mono.just("v1")).block()).isSameAs(index);
+        assertThat(cacheService.getNodeIndexIfCurrent("file", () -> Mono.just("v2")).block()).isNull();
+    }
+
+    private FigmaFileResponse load(String currentVersion) {
+        return cacheService.getOrCompute("file",
+                () -> Mono.fromSupplier(() -> {
+                    versionChecks.incrementAndGet();
+                    return currentVersion;
+                }),
+                () -> Mono.fromSupplier(() -> {
+                    fullLoads.incrementAndGet();
+                    return document(currentVersion);
+                })).block();
+    }
+
+    private static FigmaFileResponse document(String version) {
+        return new FigmaFileResponse(version, null);
+    }
+}
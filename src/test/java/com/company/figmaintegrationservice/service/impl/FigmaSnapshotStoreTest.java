@@ -0,0 +1,107 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.DocumentNode;
+import com.company.figmaintegrationservice.client.dto.FigmaFileResponse;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FigmaSnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void snapshotSurvivesRestart() throws Exception {
+        Instant validatedAt = Instant.ofEpochMilli(1_700_000_000_000L);
+        store(2048).write("abcDEF", document("42", "Page 1"), validatedAt);
+
+        FigmaSnapshotStore restarted = store(2048);
+        FigmaSnapshotStore.FigmaFileSnapshot snapshot = restarted.read("abcDEF").orElseThrow();
+
+        assertThat(snapshot.getVersion()).isEqualTo("42");
+        assertThat(snapshot.getValidatedAtMillis()).isEqualTo(validatedAt.toEpochMilli());
+        assertThat(snapshot.getDocument().getDocument().getChildren()).extracting(PageNode::getName).containsExactly("Page 1");
+    }
+
+    @Test
+    void newVersionReplacesOldSnapshot() throws Exception {
+        FigmaSnapshotStore store = store(2048);
+        store.write("file", document("1", "Old"), Instant.now());
+        store.write("file", document("2", "New"), Instant.now());
+
+        assertThat(store.read("file").orElseThrow().getVersion()).isEqualTo("2");
+        assertThat(directory.toFile().list()).hasSize(1);
+    }
+
+    @Test
+    void leastRecentlyReadSnapshotIsEvicted() throws Exception {
+        FigmaSnapshotStore store = store(0);
+        store.write("first", document("1", "A"), Instant.now());
+        store.write("second", document("1", "B"), Instant.now());
+
+        assertThat(store.read("first")).isEmpty();
+        assertThat(store.read("second")).isPresent();
+    }
+
+    @Test
+    void readSnapshotOutlivesLaterWrittenOne() throws Exception {
+        // Три снимка по ~400 КБ в лимит 1 МБ не помещаются, два — помещаются
+        FigmaSnapshotStore store = store(1);
+        store.write("first", document("1", "A".repeat(400 * 1024)), Instant.now());
+        store.write("second", document("1", "B".repeat(400 * 1024)), Instant.now());
+
+        assertThat(store.read("first")).isPresent();
+        store.write("third", document("1", "C".repeat(400 * 1024)), Instant.now());
+
+        assertThat(store.read("second")).isEmpty();
+        assertThat(store.read("first")).isPresent();
+        assertThat(store.read("third")).isPresent();
+    }
+
+    @Test
+    void leftoverTempFilesAreRemovedOnStartup() throws Exception {
+        store(2048).write("file", document("1", "A"), Instant.now());
+        Path leftover = Files.createTempFile(directory, "snapshot", ".tmp");
+
+        FigmaSnapshotStore restarted = store(2048);
+
+        assertThat(leftover).doesNotExist();
+        assertThat(restarted.read("file")).isPresent();
+    }
+
+    @Test
+    void unreadableSnapshotIsDropped() throws Exception {
+        FigmaSnapshotStore store = store(2048);
+        store.write("file", document("1", "A"), Instant.now());
+        try (Stream<Path> files = Files.list(directory)) {
+            Files.writeString(files.findFirst().orElseThrow(), "not smile");
+        }
+
+        assertThat(store.read("file")).isEmpty();
+        assertThat(directory.toFile().list()).isEmpty();
+    }
+
+    private FigmaSnapshotStore store(long maxSizeMb) throws Exception {
+        FigmaSnapshotStore store = new FigmaSnapshotStore();
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "directoryPath", directory.toString());
+        ReflectionTestUtils.setField(store, "maxSizeMb", maxSizeMb);
+        store.afterPropertiesSet();
+        return store;
+    }
+
+    private static FigmaFileResponse document(String version, String pageName) {
+        PageNode page = new PageNode("0:1", pageName, "CANVAS", List.of());
+        return new FigmaFileResponse(version, new DocumentNode(List.of(page)));
+    }
+}
@@ -0,0 +1,123 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IImageDownloadService.DownloadedImage;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Чтение тела изображения на локальной заглушке: в памяти до порога, после порога — во временный файл.
+ */
+class ImageDownloadServiceTest {
+
+    private static final int SPILL_THRESHOLD_KB = 64;
+
+    /** Крупное тело отдаётся без Content-Length (chunked), мелкое — с ним. */
+    private static final byte[] LARGE = randomBytes(300 * 1024 + 17);
+    private static final byte[] SMALL = randomBytes(10 * 1024);
+
+    private HttpServer stub;
+    private CloseableHttpClient httpClient;
+    private ImageDownloadService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/large.png", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                // Частями, чтобы порог пересекался посреди чтения
+                for (int offset = 0; offset < LARGE.length; offset += 5000) {
+                    out.write(LARGE, offset, Math.min(5000, LARGE.length - offset));
+                    out.flush();
+                }
+            }
+        });
+        stub.createContext("/small.png", exchange -> {
+            exchange.sendResponseHeaders(200, SMALL.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(SMALL);
+            }
+        });
+        stub.start();
+
+        RateLimitService limiter = new RateLimitService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(limiter, "requestsPerSecond", 50.0);
+        ReflectionTestUtils.setField(limiter, "minRequestsPerSecond", 1.0);
+        ReflectionTestUtils.setField(limiter, "maxRequestsPerSecond", 50.0);
+        ReflectionTestUtils.setField(limiter, "additiveIncrease", 1.0);
+        ReflectionTestUtils.setField(limiter, "decreaseFactor", 0.5);
+        ReflectionTestUtils.setField(limiter, "globalMaxRequestsPerSecond", 100.0);
+        ReflectionTestUtils.setField(limiter, "imageGlobalMaxRequestsPerSecond", 100.0);
+        ReflectionTestUtils.setField(limiter, "bucketIdleMinutes", 30L);
+        limiter.afterPropertiesSet();
+
+        httpClient = HttpClients.createDefault();
+        service = new ImageDownloadService(limiter, httpClient);
+        ReflectionTestUtils.setField(service, "imageTimeoutSeconds", 10);
+        ReflectionTestUtils.setField(service, "maxImageSizeMb", 50);
+        ReflectionTestUtils.setField(service, "minDelayBetweenDownloadsMs", 0);
+        ReflectionTestUtils.setField(service, "spillThresholdKb", SPILL_THRESHOLD_KB);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+        stub.stop(0);
+    }
+
+    @Test
+    void bodyAboveThresholdIsSpilledToTempFile() throws Exception {
+        DownloadedImage image = service.downloadImage(url("/large.png"), 1, "task");
+
+        assertThat(image.inMemory()).isFalse();
+        assertThat(image.file()).exists();
+        assertThat(image.size()).isEqualTo(LARGE.length);
+        assertThat(Files.size(image.file())).isEqualTo(LARGE.length);
+        assertThat(image.crc32()).isEqualTo(crc32(LARGE));
+        assertThat(image.readAllBytes()).isEqualTo(LARGE);
+
+        image.close();
+        assertThat(image.file()).doesNotExist();
+    }
+
+    @Test
+    void bodyBelowThresholdStaysInMemory() throws Exception {
+        try (DownloadedImage image = service.downloadImage(url("/small.png"), 1, "task")) {
+            assertThat(image.inMemory()).isTrue();
+            assertThat(image.file()).isNull();
+            assertThat(image.data()).isEqualTo(SMALL);
+            assertThat(image.crc32()).isEqualTo(crc32(SMALL));
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + stub.getAddress().getPort() + path;
+    }
+
+    private static long crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+}
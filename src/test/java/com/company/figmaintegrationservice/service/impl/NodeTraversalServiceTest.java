@@ -0,0 +1,143 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.client.dto.FigmaNode;
+import com.company.figmaintegrationservice.client.dto.PageNode;
+import com.company.figmaintegrationservice.config.ArchiveSettings;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+import com.company.figmaintegrationservice.mapper.FigmaMapper;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NodeTraversalServiceTest {
+
+    private final NodeTraversalService traversalService =
+            new NodeTraversalService(Mappers.getMapper(FigmaMapper.class));
+
+    @Test
+    void keepsDepthFirstOrderAndPaths() {
+        FigmaNode frame = node("1", "Frame", "FRAME",
+                text("2", "Title", "a"),
+                node("3", "Group", "GROUP", text("4", "Deep", "b")),
+                image("5", "Pic"),
+                text("6", "Footer", "c"));
+
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        traversalService.traverseNode(frame, "Page", "", texts, images);
+
+        assertThat(texts).extracting(t -> t.getNodeId() + "|" + t.getPath())
+                .containsExactly("2|Frame → Title", "4|Frame → Group → Deep", "6|Frame → Footer");
+        assertThat(images).extracting(FigmaImageDto::getPath).containsExactly("Frame → Pic");
+    }
+
+    @Test
+    void handlesTreesDeeperThanThreadStack() {
+        FigmaNode root = node("0", "Root", "FRAME");
+        FigmaNode current = root;
+        for (int level = 1; level <= 100_000; level++) {
+            FigmaNode group = node("g" + level, "G", "GROUP");
+            current.setChildren(List.of(group));
+            current = group;
+        }
+        current.setChildren(List.of(text("leaf", "Leaf", "deep text")));
+
+        List<FigmaTextDto> texts = new ArrayList<>();
+        traversalService.traverseNode(root, "Page", "", texts, new ArrayList<>());
+
+        assertThat(texts).singleElement().satisfies(text -> {
+            assertThat(text.getPath()).startsWith("Root → G → G").endsWith("G → Leaf");
+        });
+    }
+
+    @Test
+    void compiledFilterPrunesSubtreesAndSelectsRecords() {
+        FigmaNode hidden = node("h", "Hidden", "GROUP", text("h:t", "Ghost", "hidden"));
+        hidden.setVisible(false);
+        FigmaNode header = node("1", "Header", "FRAME", text("1:t", "Title", "a"), image("1:i", "Logo"), hidden);
+        FigmaNode footer = node("2", "Footer", "FRAME", text("2:t", "Copyright", "b"));
+
+        ArchiveSettings settings = new ArchiveSettings();
+        settings.setSkipHidden(true);
+        settings.setFramePattern("^head");
+        NodeFilter filter = NodeFilter.compile(settings);
+
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        traversalService.traverseNodes(List.of(header, footer), "Page", "", filter, texts, images);
+
+        assertThat(texts).extracting(FigmaTextDto::getNodeId).containsExactly("1:t");
+        assertThat(images).extracting(FigmaImageDto::getNodeId).containsExactly("1:i");
+
+        ArchiveSettings textOnly = new ArchiveSettings();
+        textOnly.setIncludeImages(false);
+        NodeFilter textFilter = NodeFilter.compile(textOnly);
+        assertThat(textFilter.wantsImages()).isFalse();
+        assertThat(textFilter.needsNodes()).isFalse();
+
+        List<FigmaImageDto> noImages = new ArrayList<>();
+        traversalService.traverseNodes(List.of(header, footer), "Page", "", textFilter, new ArrayList<>(), noImages);
+        assertThat(noImages).isEmpty();
+    }
+
+    @Test
+    void parallelTraversalKeepsSequentialOrder() {
+        List<PageNode> pages = new ArrayList<>();
+        for (int p = 0; p < 12; p++) {
+            List<FigmaNode> frames = new ArrayList<>();
+            for (int f = 0; f < p % 4; f++) {
+                String prefix = p + ":" + f;
+                frames.add(node(prefix, "Frame " + f, "FRAME",
+                        text(prefix + ":t", "Text", "text " + prefix),
+                        node(prefix + ":g", "Group", "GROUP", image(prefix + ":i", "Pic"))));
+            }
+            pages.add(new PageNode("0:" + p, "Page " + p, "CANVAS", frames));
+        }
+
+        List<FigmaTextDto> texts = new ArrayList<>();
+        List<FigmaImageDto> images = new ArrayList<>();
+        for (PageNode page : pages) {
+            traversalService.traverseNodes(page.getChildren(), page.getName(), "", texts, images);
+        }
+
+        List<FigmaTextDto> parallelTexts = new ArrayList<>();
+        List<FigmaImageDto> parallelImages = new ArrayList<>();
+        traversalService.traversePagesParallel(pages, NodeFilter.ALL, ForkJoinPool.commonPool(),
+                parallelTexts, parallelImages);
+
+        assertThat(parallelTexts).extracting(t -> t.getPageName() + "|" + t.getNodeId() + "|" + t.getPath())
+                .containsExactlyElementsOf(texts.stream()
+                        .map(t -> t.getPageName() + "|" + t.getNodeId() + "|" + t.getPath()).toList());
+        assertThat(parallelImages).extracting(FigmaImageDto::getNodeId)
+                .containsExactlyElementsOf(images.stream().map(FigmaImageDto::getNodeId).toList());
+    }
+
+    private static FigmaNode node(String id, String name, String type, FigmaNode... children) {
+        FigmaNode node = new FigmaNode();
+        node.setId(id);
+        node.setName(name);
+        node.setType(type);
+        if (children.length > 0) {
+            node.setChildren(List.of(children));
+        }
+        return node;
+    }
+
+    private static FigmaNode text(String id, String name, String characters) {
+        FigmaNode node = node(id, name, "TEXT");
+        node.setCharacters(characters);
+        return node;
+    }
+
+    private static FigmaNode image(String id, String name) {
+        FigmaNode node = node(id, name, "RECTANGLE");
+        node.setHasImageFill(true);
+        return node;
+    }
+}
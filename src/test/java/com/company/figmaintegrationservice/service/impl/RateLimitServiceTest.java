@@ -0,0 +1,332 @@
+package com.company.figmaintegrationservice.service.impl;
+
+import com.company.figmaintegrationservice.service.IRateLimitService;
+import com.company.figmaintegrationservice.utils.HttpUtils;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Проверка AIMD лимитера на локальной заглушке, которая отвечает 429 по расписанию.
+ */
+class RateLimitServiceTest {
+
+    /** Номера запросов (с 1), на которые заглушка отвечает 429 с Retry-After: 1. */
+    private static final Set<Integer> THROTTLED_REQUESTS = Set.of(4, 9);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer stub;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/v1/files", exchange -> {
+            int number = requests.incrementAndGet();
+            if (THROTTLED_REQUESTS.contains(number)) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+            } else {
+                byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    @Test
+    void growsAdditivelyOnSuccessAndHalvesOn429() throws Exception {
+        RateLimitService limiter = limiter(20.0);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(call(limiter)).isEqualTo(200);
+        }
+        assertThat(limiter.getCurrentRate()).isCloseTo(23.0, within(1e-9));
+
+        assertThat(call(limiter)).isEqualTo(429);
+        assertThat(limiter.getCurrentRate()).isCloseTo(11.5, within(1e-9));
+
+        assertThat(call(limiter)).isEqualTo(200);
+        assertThat(limiter.getCurrentRate()).isCloseTo(12.5, within(1e-9));
+    }
+
+    @Test
+    void retryAfterPausesEveryWaitingCaller() throws Exception {
+        RateLimitService limiter = limiter(20.0);
+        for (int i = 0; i < 3; i++) {
+            call(limiter);
+        }
+        assertThat(call(limiter)).isEqualTo(429);
+        long throttledAt = System.nanoTime();
+
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Long>> waits = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                waits.add(callers.submit(() -> {
+                    limiter.acquire();
+                    return System.nanoTime() - throttledAt;
+                }));
+            }
+            for (Future<Long> wait : waits) {
+                assertThat(Duration.ofNanos(wait.get())).isGreaterThanOrEqualTo(Duration.ofMillis(900));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void reactivePermitsArePacedWithoutBlockingThreads() {
+        RateLimitService limiter = limiter(10.0);
+
+        long start = System.nanoTime();
+        Flux.range(0, 5)
+                .flatMap(i -> limiter.acquireReactive())
+                .blockLast(Duration.ofSeconds(5));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        // Первое разрешение сразу, остальные четыре — с шагом 100 мс
+        assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis(380));
+
+        limiter.onRateLimited(Duration.ofSeconds(1));
+        long throttledAt = System.nanoTime();
+        limiter.acquireReactive().block(Duration.ofSeconds(5));
+        assertThat(Duration.ofNanos(System.nanoTime() - throttledAt)).isGreaterThanOrEqualTo(Duration.ofMillis(900));
+    }
+
+    @Test
+    void reactiveSubscriptionReturnsImmediatelyAndWaitsOnTimer() throws Exception {
+        RateLimitService limiter = limiter(5.0);
+        CountDownLatch done = new CountDownLatch(4);
+        Set<String> completionThreads = ConcurrentHashMap.newKeySet();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquireReactive().subscribe(null, null, () -> {
+                completionThreads.add(Thread.currentThread().getName());
+                done.countDown();
+            });
+        }
+        // Подписка только резервирует слоты: вызывающий поток не ждёт 600 мс до последнего слота
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(100));
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(550));
+        // Первое разрешение выдаётся сразу в подписке, остальные — таймером Reactor
+        completionThreads.remove(Thread.currentThread().getName());
+        assertThat(completionThreads).allMatch(name -> name.startsWith("parallel"));
+    }
+
+    @Test
+    void permitsReservedBefore429AreSpacedAfterCooldown() throws Exception {
+        RateLimitService limiter = limiter(10.0);
+        List<Long> completions = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+
+        limiter.acquireReactive().block(Duration.ofSeconds(1));
+        for (int i = 0; i < 3; i++) {
+            limiter.acquireReactive().subscribe(null, null, () -> {
+                completions.add(System.nanoTime());
+                done.countDown();
+            });
+        }
+        // Слоты на 100, 200 и 300 мс попадают в паузу; скорость падает до 5 запросов/сек
+        limiter.onRateLimited(Duration.ofSeconds(1));
+        long throttledAt = System.nanoTime();
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        List<Long> sorted = completions.stream().sorted().toList();
+        assertThat(Duration.ofNanos(sorted.get(0) - throttledAt)).isGreaterThanOrEqualTo(Duration.ofMillis(900));
+        for (int i = 1; i < sorted.size(); i++) {
+            assertThat(Duration.ofNanos(sorted.get(i) - sorted.get(i - 1))).isGreaterThanOrEqualTo(Duration.ofMillis(150));
+        }
+    }
+
+    @Test
+    void cancelledReactivePermitReturnsItsSlot() {
+        RateLimitService limiter = limiter(1.0);
+        limiter.acquireReactive().block(Duration.ofSeconds(1));
+
+        // Слот через секунду резервируется и сразу отменяется
+        limiter.acquireReactive().subscribe().dispose();
+
+        long start = System.nanoTime();
+        limiter.acquireReactive().block(Duration.ofSeconds(5));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1500));
+    }
+
+    @Test
+    void tokensHaveIndependentBucketsUnderGlobalCeiling() {
+        RateLimitService limiter = limiter(10.0);
+
+        limiter.onRateLimited("token-a", Duration.ofSeconds(2));
+        assertThat(limiter.getCurrentRate("token-a")).isCloseTo(5.0, within(1e-9));
+        assertThat(limiter.getCurrentRate("token-b")).isCloseTo(10.0, within(1e-9));
+
+        // Пауза токена A не задерживает токен B
+        long start = System.nanoTime();
+        Flux.range(0, 3)
+                .flatMap(i -> limiter.acquireReactive("token-b"))
+                .blockLast(Duration.ofSeconds(5));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1000));
+
+        assertThat(limiter.getCurrentRate()).isCloseTo(15.0, within(1e-9));
+    }
+
+    @Test
+    void globalCeilingPacesTokensTogether() {
+        RateLimitService limiter = limiter(10.0, 5.0);
+
+        // Каждый токен отдельно выдал бы три разрешения за 200 мс, вместе шесть упираются в 5 запросов/сек
+        long start = System.nanoTime();
+        Flux.range(0, 6)
+                .flatMap(i -> limiter.acquireReactive(i % 2 == 0 ? "token-a" : "token-b"))
+                .blockLast(Duration.ofSeconds(5));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(950));
+        assertThat(limiter.getCurrentRate()).isCloseTo(5.0, within(1e-9));
+    }
+
+    @Test
+    void imageDownloadsDoNotConsumeApiCeiling() {
+        RateLimitService limiter = limiter(10.0, 1.0);
+        limiter.acquireReactive("token-a").block(Duration.ofSeconds(1));
+
+        // Загрузки изображений идут на CDN и упираются в собственный потолок, а не в 1 запрос/сек API
+        long start = System.nanoTime();
+        Flux.range(0, 3)
+                .flatMap(i -> limiter.acquireReactive(IRateLimitService.IMAGE_KEY_PREFIX + "task-" + i))
+                .blockLast(Duration.ofSeconds(5));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+
+        // Бакеты изображений не попадают в скорость запросов к API
+        assertThat(limiter.getCurrentRate()).isCloseTo(1.0, within(1e-9));
+    }
+
+    @Test
+    void failedGlobalReservationReturnsTokenSlot() throws Exception {
+        RateLimitService limiter = limiter(2.0, 1.0);
+        limiter.acquire("token-a");
+
+        // Общий слот есть только через секунду: попытки токена B не проходят и не занимают его слоты
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire("token-b", 50)).isFalse();
+        }
+
+        long start = System.nanoTime();
+        limiter.acquire("token-b");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1500));
+    }
+
+    @Test
+    void reservationWithoutDeadlineSucceedsForNegativeNanoTime() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(10.0, 1.0, 50.0, 1.0, 0.5);
+        // System.nanoTime может быть отрицательным: разность с Long.MAX_VALUE переполняется
+        long now = Long.MIN_VALUE / 2;
+        ReflectionTestUtils.setField(bucket, "nextFreeNanos", now);
+        ReflectionTestUtils.setField(bucket, "cooldownUntilNanos", now);
+
+        assertThat(bucket.reserve(now, AdaptiveTokenBucket.NO_DEADLINE)).isEqualTo(now);
+        assertThat(bucket.reserve(now, now)).isEqualTo(Long.MIN_VALUE);
+    }
+
+    @Test
+    void readingRateOfUnknownTokenDoesNotCreateBucket() {
+        RateLimitService limiter = limiter(10.0);
+
+        assertThat(limiter.getCurrentRate("token-c")).isCloseTo(10.0, within(1e-9));
+        assertThat(limiter.getCurrentRate()).isZero();
+    }
+
+    @Test
+    void burstOf429FromInFlightCallsDecreasesRateOnce() {
+        RateLimitService limiter = limiter(20.0);
+
+        limiter.onRateLimited(null);
+        limiter.onRateLimited(null);
+        limiter.onRateLimited(null);
+
+        assertThat(limiter.getCurrentRate()).isCloseTo(10.0, within(1e-9));
+    }
+
+    @Test
+    void rateStaysWithinConfiguredBounds() {
+        RateLimitService limiter = limiter(49.5);
+        limiter.onSuccess();
+        limiter.onSuccess();
+        assertThat(limiter.getCurrentRate()).isCloseTo(50.0, within(1e-9));
+
+        RateLimitService slow = limiter(1.5);
+        slow.onRateLimited(null);
+        assertThat(slow.getCurrentRate()).isCloseTo(1.0, within(1e-9));
+    }
+
+    private RateLimitService limiter(double initialRate) {
+        return limiter(initialRate, 100.0);
+    }
+
+    private RateLimitService limiter(double initialRate, double globalMaxRate) {
+        RateLimitService service = new RateLimitService(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "requestsPerSecond", initialRate);
+        ReflectionTestUtils.setField(service, "minRequestsPerSecond", 1.0);
+        ReflectionTestUtils.setField(service, "maxRequestsPerSecond", 50.0);
+        ReflectionTestUtils.setField(service, "additiveIncrease", 1.0);
+        ReflectionTestUtils.setField(service, "decreaseFactor", 0.5);
+        ReflectionTestUtils.setField(service, "globalMaxRequestsPerSecond", globalMaxRate);
+        ReflectionTestUtils.setField(service, "imageGlobalMaxRequestsPerSecond", 100.0);
+        ReflectionTestUtils.setField(service, "bucketIdleMinutes", 30L);
+        service.afterPropertiesSet();
+        return service;
+    }
+
+    private int call(RateLimitService limiter) throws Exception {
+        limiter.acquire();
+        URI uri = URI.create("http://127.0.0.1:" + stub.getAddress().getPort() + "/v1/files/key");
+        HttpURLConnection conn = (HttpURLConnection) uri.toURL().openConnection();
+        try {
+            int code = conn.getResponseCode();
+            if (code == 429) {
+                limiter.onRateLimited(HttpUtils.parseRetryAfter(conn.getHeaderField("Retry-After")));
+            } else {
+                limiter.onSuccess();
+            }
+            return code;
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
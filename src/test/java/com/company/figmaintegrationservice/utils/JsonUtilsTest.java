@@ -0,0 +1,69 @@
+package com.company.figmaintegrationservice.utils;
+
+import com.company.figmaintegrationservice.dto.FigmaExportDto;
+import com.company.figmaintegrationservice.dto.FigmaImageDto;
+import com.company.figmaintegrationservice.dto.FigmaTextDto;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonUtilsTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final FigmaExportDto export = new FigmaExportDto("7",
+            List.of(new FigmaTextDto("Page", "Frame", "Title", "1:2", "Привет", "Frame → Title"),
+                    new FigmaTextDto("Page", "Frame", "Body", "1:3", "Text", "Frame → Body")),
+            List.of(new FigmaImageDto("Page", "Frame", "Pic", "2:1", "https://img/1", "ref1", "Frame → Pic", null)));
+
+    @Test
+    void streamsSameDocumentInPrettyAndCompactLayouts() throws Exception {
+        JsonNode expected = mapper.readTree(JsonUtils.toJsonBytes(export));
+
+        String compact = write(JsonUtils.JsonLayout.COMPACT);
+        assertThat(compact).doesNotContain("\n");
+        assertThat(mapper.readTree(compact)).isEqualTo(expected);
+        assertThat(mapper.readTree(write(JsonUtils.JsonLayout.PRETTY))).isEqualTo(expected);
+    }
+
+    @Test
+    void writesOneRecordPerLineInNdjson() throws Exception {
+        List<String> lines = write(JsonUtils.JsonLayout.NDJSON).lines().toList();
+
+        assertThat(lines).hasSize(4);
+        assertThat(mapper.readTree(lines.get(0)).get("texts").asInt()).isEqualTo(2);
+        assertThat(mapper.readTree(lines.get(1)).get("type").asText()).isEqualTo("text");
+        assertThat(mapper.readTree(lines.get(1)).get("text").asText()).isEqualTo("Привет");
+        assertThat(mapper.readTree(lines.get(3)).get("type").asText()).isEqualTo("image");
+    }
+
+    @Test
+    void leavesTargetStreamOpen() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        OutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        for (JsonUtils.JsonLayout layout : JsonUtils.JsonLayout.values()) {
+            JsonUtils.writeExport(export, out, layout);
+        }
+        assertThat(closed).isFalse();
+    }
+
+    private String write(JsonUtils.JsonLayout layout) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.writeExport(export, out, layout);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}